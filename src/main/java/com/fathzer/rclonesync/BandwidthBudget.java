@@ -0,0 +1,210 @@
+package com.fathzer.rclonesync;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bandwidth budget shared by concurrent synchronizations.
+ * <br>Each running synchronization that uses the budget gets a share of it, proportional to its weight.
+ * Shares are rebalanced when a synchronization starts or ends, and when the budget changes according to its schedule.
+ * The new limits are applied to the running rclone processes through rclone's remote control API
+ * (<code>core/bwlimit</code>).
+ * <br>A single instance is typically shared by all the synchronizations of an application.
+ * @see RcloneSync#withBandwidthBudget(BandwidthBudget, int)
+ */
+public class BandwidthBudget {
+    private static final long CHECK_PERIOD_SECONDS = 10;
+
+    private final long bytesPerSecond;
+    private final NavigableMap<LocalTime, Long> schedule = new TreeMap<>();
+    private final Supplier<LocalTime> clock;
+    private final Executor applyExecutor;
+    private final boolean background;
+    private final List<Share> shares = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> checkTask;
+
+    /**
+     * A share of the budget.
+     */
+    static class Share {
+        private final int weight;
+        private final LongConsumer applier;
+        private volatile long limit;
+        private volatile boolean applied = true;
+
+        private Share(int weight, LongConsumer applier) {
+            this.weight = weight;
+            this.applier = applier;
+        }
+
+        /**
+         * Gets the current limit of this share.
+         *
+         * @return a number of bytes per second, 0 if there's no limit
+         */
+        long limit() {
+            return limit;
+        }
+    }
+
+    /**
+     * Creates a new budget.
+     *
+     * @param bytesPerSecond the total bandwidth in bytes per second, 0 for no limit.
+     * It applies at any time of the day that is not covered by a schedule (see {@link #withSchedule(LocalTime, long)}).
+     * @throws IllegalArgumentException if bytesPerSecond is negative
+     */
+    public BandwidthBudget(long bytesPerSecond) {
+        this(bytesPerSecond, LocalTime::now, null);
+    }
+
+    /**
+     * Creates a new budget.
+     *
+     * @param bytesPerSecond the total bandwidth in bytes per second, 0 for no limit.
+     * @param clock the clock that gives the time of the day
+     * @param applyExecutor the executor that applies the limits, null to use a background thread
+     */
+    BandwidthBudget(long bytesPerSecond, Supplier<LocalTime> clock, Executor applyExecutor) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.clock = clock;
+        this.background = applyExecutor == null;
+        this.applyExecutor = background ? task -> scheduler().execute(task) : applyExecutor;
+    }
+
+    /**
+     * Adds an entry to the time-of-day schedule of this budget.
+     * <br>The budget of an entry applies from its time to the time of the next entry. The last entry of the day
+     * applies until the first entry of the next day, like in rclone's bandwidth timetables.
+     *
+     * @param from the time at which this budget starts to apply
+     * @param bytesPerSecond the total bandwidth in bytes per second, 0 for no limit.
+     * @return this instance for method chaining
+     * @throws NullPointerException if from is null
+     * @throws IllegalArgumentException if bytesPerSecond is negative
+     */
+    public BandwidthBudget withSchedule(LocalTime from, long bytesPerSecond) {
+        if (from == null) {
+            throw new NullPointerException("from must not be null");
+        }
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        }
+        synchronized (this) {
+            schedule.put(from, bytesPerSecond);
+            rebalance();
+        }
+        return this;
+    }
+
+    /**
+     * Gets the current total bandwidth.
+     *
+     * @return a number of bytes per second, 0 if there's no limit
+     */
+    public synchronized long total() {
+        if (schedule.isEmpty()) {
+            return bytesPerSecond;
+        }
+        final Map.Entry<LocalTime, Long> entry = schedule.floorEntry(clock.get());
+        // Before the first entry of the day, the last entry of the previous day applies
+        return entry == null ? schedule.lastEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * Registers a running synchronization.
+     *
+     * @param weight the weight of the synchronization
+     * @param applier a consumer that applies a new limit to the synchronization.
+     * It is not called with the initial limit, which is available through {@link Share#limit()}.
+     * @return the share of the synchronization
+     */
+    synchronized Share register(int weight, LongConsumer applier) {
+        final Share share = new Share(weight, applier);
+        shares.add(share);
+        share.limit = limit(share, total());
+        rebalance();
+        if (background && checkTask == null) {
+            // Periodically checks the schedule and retries the limits that failed to be applied
+            checkTask = scheduler().scheduleAtFixedRate(this::rebalance, CHECK_PERIOD_SECONDS, CHECK_PERIOD_SECONDS, TimeUnit.SECONDS);
+        }
+        return share;
+    }
+
+    /**
+     * Unregisters a synchronization and gives its share to the other ones.
+     *
+     * @param share the share of the synchronization
+     */
+    synchronized void unregister(Share share) {
+        if (shares.remove(share)) {
+            rebalance();
+        }
+        if (shares.isEmpty() && checkTask != null) {
+            checkTask.cancel(false);
+            checkTask = null;
+        }
+    }
+
+    /**
+     * Computes the limits of the shares and applies the ones that changed or that failed to be applied.
+     */
+    synchronized void rebalance() {
+        final long total = total();
+        for (Share share : shares) {
+            final long limit = limit(share, total);
+            if (limit != share.limit || !share.applied) {
+                share.limit = limit;
+                share.applied = false;
+                applyExecutor.execute(() -> apply(share, limit));
+            }
+        }
+    }
+
+    private long limit(Share share, long total) {
+        if (total == 0) {
+            return 0;
+        }
+        final long weights = shares.stream().mapToLong(s -> s.weight).sum();
+        // A limit of 0 would mean no limit
+        return Math.max(1, total * share.weight / weights);
+    }
+
+    private void apply(Share share, long limit) {
+        try {
+            share.applier.accept(limit);
+            share.applied = share.limit == limit;
+        } catch (RuntimeException e) {
+            // It will be retried at next check
+            Logger.getLogger(getClass().getName()).log(Level.FINE, "Unable to apply bandwidth limit", e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "rclone-bandwidth-budget");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+}
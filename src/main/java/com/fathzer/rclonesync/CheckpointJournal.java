@@ -0,0 +1,168 @@
+package com.fathzer.rclonesync;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only file that records the files a synchronization has completed.
+ * <br>Each line is the path of a file, relative to the source root. Each record is written to the file as soon as it
+ * is received, so a crash of the JVM loses nothing. Forcing the file to the storage device is expensive, it is done
+ * in batches (every {@value #BATCH_SIZE} records, or with the first record received one second after the last force).
+ * A crash of the system can lose the last batch, which only means these files are checked again by the next run.
+ * A line that was partially written when the crash occurred is ignored.
+ */
+class CheckpointJournal implements Closeable {
+    private static final int BATCH_SIZE = 256;
+    private static final long BATCH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private int pending;
+    private long lastSync = System.nanoTime();
+
+    private CheckpointJournal(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() > 0 && !endsWithNewLine(path)) {
+            // The last line was partially written, terminate it so that the next record is not appended to it
+            channel.write(ByteBuffer.wrap(new byte[] {'\n'}));
+        }
+        // The buffer only merges the path and the line separator in a single write
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Opens a journal, creating it if it does not exist.
+     *
+     * @param path the journal file
+     * @return a journal that appends records to the file
+     * @throws IOException if the file can't be opened
+     */
+    static CheckpointJournal open(Path path) throws IOException {
+        return new CheckpointJournal(path);
+    }
+
+    /**
+     * Gets the journal file.
+     *
+     * @return a path
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Records a completed file.
+     *
+     * @param file the path of the file, relative to the source root
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized void record(String file) throws IOException {
+        out.write(file.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+        out.flush();
+        pending++;
+        if (pending >= BATCH_SIZE || System.nanoTime() - lastSync >= BATCH_NANOS) {
+            sync();
+        }
+    }
+
+    private void sync() throws IOException {
+        out.flush();
+        channel.force(false);
+        pending = 0;
+        lastSync = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the completed files of a journal.
+     *
+     * @param path the journal file
+     * @return the set of recorded paths
+     * @throws IOException if an I/O error occurs
+     */
+    static Set<String> read(Path path) throws IOException {
+        final Set<String> files = new HashSet<>();
+        final boolean complete = endsWithNewLine(path);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                final String next = reader.readLine();
+                // The last line is ignored if it was partially written
+                if (!line.isEmpty() && (next != null || complete)) {
+                    files.add(line);
+                }
+                line = next;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Writes the files of a plan that are not completed.
+     * <br>The remaining files are written in the format of rclone's <code>--files-from-raw</code> option.
+     *
+     * @param plan a file that contains the files to synchronize, one per line
+     * @param raw true if the plan has the format of <code>--files-from-raw</code>, false if it has the format of
+     * <code>--files-from</code> (blank lines and lines starting with # or ; are skipped, lines are trimmed)
+     * @param completed the completed files
+     * @param remaining the file where to write the files that are not completed
+     * @return the number of completed files that were found in the plan
+     * @throws IOException if an I/O error occurs
+     */
+    static int writeRemaining(Path plan, boolean raw, Set<String> completed, Path remaining) throws IOException {
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(plan, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(remaining, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String file = raw ? line : line.trim();
+                if (!raw && (file.isEmpty() || file.charAt(0) == '#' || file.charAt(0) == ';')) {
+                    continue;
+                }
+                if (completed.contains(file)) {
+                    skipped++;
+                } else {
+                    writer.write(file);
+                    writer.write('\n');
+                }
+            }
+        }
+        return skipped;
+    }
+
+    private static boolean endsWithNewLine(Path path) throws IOException {
+        final long size = Files.size(path);
+        if (size == 0) {
+            return true;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            in.skipNBytes(size - 1);
+            return in.read() == '\n';
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A synchronization made of several rclone processes that run in stages.
+ * <br>The processes of a stage run in parallel, and a stage starts only if all the processes of the previous stage succeeded.
+ * The progress of the processes of the running stage, their results and their file events are merged.
+ */
+class CompositeSynchronization extends Synchronization {
+    private final List<Synchronization> parts = new CopyOnWriteArrayList<>();
+    private final Map<RcloneSync, Progress> progresses = new ConcurrentHashMap<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final CountDownLatch cancelledLatch = new CountDownLatch(1);
+    private final Consumer<Progress> eventConsumer;
+    private final Consumer<IOException> exceptionConsumer;
+
+    /**
+     * Creates a composite synchronization.
+     *
+     * @param eventConsumer the consumer of the merged progress
+     * @param exceptionConsumer the consumer of the errors that occur when a process is started
+     */
+    CompositeSynchronization(Consumer<Progress> eventConsumer, Consumer<IOException> exceptionConsumer) {
+        super(null, new SynchronizationResult());
+        this.eventConsumer = eventConsumer;
+        this.exceptionConsumer = exceptionConsumer;
+    }
+
+    /**
+     * A supplier of stages, that can decide the next stage according to the result of the previous one.
+     */
+    @FunctionalInterface
+    interface Stages {
+        /**
+         * Gets the next stage.
+         *
+         * @param previous the synchronizations of the previous stage, empty before the first stage
+         * @return the next stage, or null if there is no more stage
+         * @throws InterruptedException if the current thread is interrupted
+         */
+        List<RcloneSync> next(List<Synchronization> previous) throws InterruptedException;
+    }
+
+    /**
+     * Starts the stages in a background thread.
+     * <br>A stage starts only if all the processes of the previous stage succeeded.
+     *
+     * @param stages the stages, each stage is a list of synchronizations that run in parallel.
+     * Their event consumer and their file event publisher are replaced.
+     */
+    void start(List<List<RcloneSync>> stages) {
+        final Iterator<List<RcloneSync>> iterator = stages.iterator();
+        start(previous -> iterator.hasNext() && previous.stream().allMatch(s -> s.result().exitCode() == 0) ? iterator.next() : null);
+    }
+
+    /**
+     * Starts the stages supplied by a {@link Stages} in a background thread.
+     * <br>The stages end if a process can't be started.
+     *
+     * @param stages the stages supplier
+     */
+    void start(Stages stages) {
+        final Thread thread = new Thread(() -> runStages(stages));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void runStages(Stages stages) {
+        try {
+            List<Synchronization> previous = List.of();
+            for (List<RcloneSync> stage = stages.next(previous); stage != null && !isCancelled(); stage = stages.next(previous)) {
+                previous = runStage(stage);
+                if (previous == null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        } finally {
+            completeOutput(null);
+            done.countDown();
+            publishResult();
+        }
+    }
+
+    /**
+     * Runs a stage and waits for its end.
+     *
+     * @param stage the synchronizations to run in parallel
+     * @return the ended synchronizations, null if one of them could not be started
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    private List<Synchronization> runStage(List<RcloneSync> stage) throws InterruptedException {
+        progresses.clear();
+        final List<Synchronization> running = new ArrayList<>(stage.size());
+        boolean started = true;
+        for (RcloneSync sync : stage) {
+            sync.withEventConsumer(progress -> onProgress(sync, progress)).withFileEventSink(fileEventSink());
+            try {
+                final Synchronization synchronization = sync.run();
+                running.add(synchronization);
+                parts.add(synchronization);
+                if (isCancelled()) {
+                    // cancel() may have been called before the synchronization was added to the parts
+                    synchronization.cancel();
+                }
+            } catch (IOException e) {
+                super.result().setExitCode(-1);
+                exceptionConsumer.accept(e);
+                running.forEach(Synchronization::cancel);
+                started = false;
+                break;
+            }
+        }
+        for (Synchronization synchronization : running) {
+            synchronization.waitFor();
+        }
+        return started ? running : null;
+    }
+
+    /**
+     * Waits for a delay, unless this synchronization is cancelled.
+     *
+     * @param millis the delay in milliseconds
+     * @return false if this synchronization was cancelled
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    boolean sleep(long millis) throws InterruptedException {
+        return !cancelledLatch.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the synchronizations started so far.
+     *
+     * @return a list of synchronizations
+     */
+    List<Synchronization> parts() {
+        return parts;
+    }
+
+    private synchronized void onProgress(RcloneSync sync, Progress progress) {
+        progresses.put(sync, progress);
+        final Progress merged = Progress.aggregate(progresses.values());
+        eventConsumer.accept(merged);
+        progressSink().submit(merged);
+    }
+
+    /**
+     * Gets the merged result of the processes.
+     * <br>The file counts are summed and the exit code is the first non-zero exit code, if any
+     * (-1 if a process could not be started).
+     *
+     * @return a new result that is a snapshot of the current results of the processes
+     */
+    @Override
+    public SynchronizationResult result() {
+        final SynchronizationResult result = new SynchronizationResult();
+        result.add(super.result());
+        parts.forEach(part -> result.add(part.result()));
+        return result;
+    }
+
+    /**
+     * Waits for all the stages to complete.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    @Override
+    public void waitFor() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * Cancels the running processes; next stages are not started.
+     */
+    @Override
+    public void cancel() {
+        super.cancel();
+        cancelledLatch.countDown();
+        parts.forEach(Synchronization::cancel);
+    }
+}
@@ -0,0 +1,216 @@
+package com.fathzer.rclonesync;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} of a hot source, that respects the demand of its subscribers without unbounded buffering.
+ * <br>Items submitted while a subscriber has no outstanding demand are not delivered to it. In <i>latest</i> mode,
+ * the last of these items is kept and is delivered as soon as the subscriber requests it, which is suitable for values
+ * that replace each other (like progress ticks). Otherwise, they are dropped.
+ * <br>In <i>latest</i> mode, subscribers that subscribe after an item was submitted receive the last submitted item.
+ * <br>Signals to a subscriber are serialized, but may be emitted by the thread that submits items or by the one that
+ * requests them.
+ *
+ * @param <T> the type of the published items
+ */
+class DemandPublisher<T> implements Flow.Publisher<T> {
+    private final boolean latest;
+    private final List<DemandSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private T last;
+    private boolean terminated;
+    private Throwable failure;
+
+    /**
+     * Creates a publisher.
+     *
+     * @param latest true to keep the last item for subscribers without demand, false to drop it
+     */
+    DemandPublisher(boolean latest) {
+        this.latest = latest;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        final DemandSubscription subscription = new DemandSubscription(subscriber);
+        // onSubscribe must be the first signal, the subscription is registered once it is sent
+        subscriber.onSubscribe(subscription);
+        synchronized (this) {
+            if (latest && last != null) {
+                subscription.queue.add(last);
+            }
+            subscription.terminated = terminated;
+            subscription.failure = failure;
+            if (!terminated) {
+                subscriptions.add(subscription);
+            }
+        }
+        subscription.drain();
+    }
+
+    /**
+     * Checks whether an item submitted now would be delivered to, or kept for, at least one subscriber.
+     * <br>It allows to skip the work needed to build an item when nobody needs it.
+     *
+     * @return true if at least one subscriber can accept an item
+     */
+    boolean hasDemand() {
+        for (DemandSubscription subscription : subscriptions) {
+            if (subscription.canAccept()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Submits an item to the subscribers.
+     *
+     * @param item the item (not null)
+     */
+    void submit(T item) {
+        if (latest) {
+            synchronized (this) {
+                last = item;
+            }
+        }
+        for (DemandSubscription subscription : subscriptions) {
+            subscription.offer(item);
+        }
+    }
+
+    /**
+     * Completes all subscriptions once their accepted items are delivered.
+     */
+    void complete() {
+        terminate(null);
+    }
+
+    /**
+     * Completes all subscriptions with an error once their accepted items are delivered.
+     *
+     * @param error the error
+     */
+    void completeExceptionally(Throwable error) {
+        terminate(Objects.requireNonNull(error));
+    }
+
+    private void terminate(Throwable error) {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            failure = error;
+        }
+        for (DemandSubscription subscription : subscriptions) {
+            subscription.failure = error;
+            subscription.terminated = true;
+            subscription.drain();
+        }
+    }
+
+    private class DemandSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean terminated;
+        private volatile Throwable failure;
+        private boolean done;
+
+        private DemandSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private boolean canAccept() {
+            return !cancelled && queued.get() < requested.get();
+        }
+
+        private void offer(T item) {
+            if (latest) {
+                // Only one item is kept
+                if (queue.poll() != null) {
+                    queued.decrementAndGet();
+                }
+            } else if (!canAccept()) {
+                return;
+            }
+            queue.add(item);
+            queued.incrementAndGet();
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested items must be positive (rule 3.9)"));
+                return;
+            }
+            requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (!emit()) {
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Emits the items the subscriber requested and the completion.
+         * @return false if the subscription is over
+         */
+        private boolean emit() {
+            while (!cancelled && requested.get() > 0) {
+                final T item = queue.poll();
+                if (item == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                subscriber.onNext(item);
+            }
+            if (cancelled || done) {
+                queue.clear();
+                return false;
+            }
+            if (terminated && queue.isEmpty()) {
+                done = true;
+                subscriptions.remove(this);
+                if (failure == null) {
+                    subscriber.onComplete();
+                } else {
+                    subscriber.onError(failure);
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Computes the difference between two listings that may not fit in memory.
+ * <br>Both listings are read in parallel and sorted with an {@link ExternalSorter}. A merge of the sorted entries
+ * then emits the paths to copy (missing in the destination), the paths to replace (different according to a
+ * {@link DiffSync.Rule}) and the paths to delete (missing in the source).
+ */
+class DiffEngine {
+    /** A listing of files. */
+    interface Listing {
+        /**
+         * Reads the listing.
+         *
+         * @param consumer the consumer of the entries
+         * @throws IOException if the listing fails
+         */
+        void read(LsJsonParser.EntryConsumer consumer) throws IOException;
+
+        /**
+         * Stops the listing, because the other one failed.
+         * <br>A blocked {@link #read(LsJsonParser.EntryConsumer)} should return or fail quickly once this method is called.
+         */
+        default void cancel() {
+            // Nothing to do by default
+        }
+    }
+
+    private final Path directory;
+    private final long memoryLimit;
+    private final DiffSync.Rule rule;
+
+    /**
+     * Creates an engine.
+     *
+     * @param directory the directory where the sorted runs are spilled
+     * @param memoryLimit the maximum number of bytes used to store the entries in memory, shared by both listings
+     * @param rule the rule that decides if a file present in both listings should be copied
+     */
+    DiffEngine(Path directory, long memoryLimit, DiffSync.Rule rule) {
+        this.directory = directory;
+        this.memoryLimit = memoryLimit;
+        this.rule = rule;
+    }
+
+    /**
+     * Computes the difference between two listings.
+     *
+     * @param source the source listing
+     * @param destination the destination listing
+     * @param copies the stream where the paths of the files to copy are written, one per line
+     * @param replaces the stream where the paths of the files to replace are written, one per line (it can be copies)
+     * @param deletes the stream where the paths of the files to delete are written, one per line
+     * @return the statistics of the difference
+     * @throws IOException if a listing fails or if an I/O error occurs
+     */
+    DiffSync.Stats diff(Listing source, Listing destination, OutputStream copies, OutputStream replaces, OutputStream deletes) throws IOException {
+        try (ExternalSorter sourceSorter = new ExternalSorter(directory, memoryLimit / 2);
+                ExternalSorter destinationSorter = new ExternalSorter(directory, memoryLimit / 2)) {
+            final FutureTask<Void> destinationTask = new FutureTask<>(() -> {
+                read(destination, destinationSorter, source);
+                return null;
+            });
+            final Thread thread = new Thread(destinationTask, "rclone-diff-destination");
+            thread.setDaemon(true);
+            thread.start();
+            try {
+                read(source, sourceSorter, destination);
+            } finally {
+                join(thread);
+            }
+            get(destinationTask);
+            try (EntryCursor sourceCursor = sourceSorter.cursor(); EntryCursor destinationCursor = destinationSorter.cursor()) {
+                return merge(sourceCursor, destinationCursor, copies, replaces, deletes);
+            }
+        }
+    }
+
+    private static void read(Listing listing, ExternalSorter sorter, Listing other) throws IOException {
+        try {
+            listing.read(sorter::add);
+        } catch (IOException | RuntimeException e) {
+            other.cancel();
+            throw e;
+        }
+    }
+
+    private static void join(Thread thread) throws InterruptedIOException {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing the destination");
+        }
+    }
+
+    private static void get(FutureTask<Void> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing the destination");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Merges two sorted cursors.
+     *
+     * @param source the source entries
+     * @param destination the destination entries
+     * @param copies the stream where the paths of the files to copy are written
+     * @param replaces the stream where the paths of the files to replace are written
+     * @param deletes the stream where the paths of the files to delete are written
+     * @return the statistics of the difference
+     * @throws IOException if an I/O error occurs
+     */
+    DiffSync.Stats merge(EntryCursor source, EntryCursor destination, OutputStream copies, OutputStream replaces, OutputStream deletes) throws IOException {
+        long sourceFiles = 0;
+        long destinationFiles = 0;
+        long copied = 0;
+        long replaced = 0;
+        long deleted = 0;
+        boolean hasSource = source.next();
+        boolean hasDestination = destination.next();
+        while (hasSource || hasDestination) {
+            final int comparison;
+            if (!hasSource) {
+                comparison = 1;
+            } else if (!hasDestination) {
+                comparison = -1;
+            } else {
+                comparison = EntryCursor.compare(source, destination);
+            }
+            if (comparison < 0) {
+                // Missing in the destination
+                write(copies, source);
+                copied++;
+                sourceFiles++;
+                hasSource = source.next();
+            } else if (comparison > 0) {
+                // Missing in the source
+                write(deletes, destination);
+                deleted++;
+                destinationFiles++;
+                hasDestination = destination.next();
+            } else {
+                if (rule.differs(source, destination)) {
+                    write(replaces, source);
+                    replaced++;
+                }
+                sourceFiles++;
+                destinationFiles++;
+                hasSource = source.next();
+                hasDestination = destination.next();
+            }
+        }
+        return new DiffSync.Stats(sourceFiles, destinationFiles, copied, replaced, deleted);
+    }
+
+    private static void write(OutputStream out, EntryCursor entry) throws IOException {
+        out.write(entry.pathBytes(), entry.pathOffset(), entry.pathLength());
+        out.write('\n');
+    }
+}
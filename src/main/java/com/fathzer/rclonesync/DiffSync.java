@@ -0,0 +1,402 @@
+package com.fathzer.rclonesync;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * A class that synchronizes a source and a destination by computing their difference in Java.
+ * <br>Both sides are listed with <code>rclone lsjson -R --fast-list</code>. The listings are streamed into compact
+ * binary runs, sorted on disk when they exceed a memory cap, then merged to decide which files should be copied,
+ * replaced or deleted. The decision for files present on both sides is made by a {@link Rule}, which can be customized.
+ * <br>The decisions are then executed by rclone through <code>--files-from-raw</code>: a copy of the missing files and
+ * a copy of the files to replace, run in parallel, followed by a sync of the files to delete, which runs only if the
+ * copies succeeded.
+ * <br>The listings have no checksums, so {@link RcloneSync#withCheckSum(boolean)} is not supported; use a {@link Rule}
+ * to choose how files are compared.
+ */
+public class DiffSync {
+    /** The rclone exit code when a directory is not found */
+    private static final int DIRECTORY_NOT_FOUND_EXIT_CODE = 3;
+    private static final String[] LSJSON_OPTIONS = {"lsjson", "-R", "--fast-list", "--files-only", "--no-mimetype"};
+
+    /**
+     * A file of a listing.
+     * <br>Entries passed to a {@link Rule} are only valid during the call.
+     */
+    public interface Entry {
+        /**
+         * Gets the path of the file, relative to the listed remote.
+         *
+         * @return a path
+         */
+        String path();
+
+        /**
+         * Gets the size of the file.
+         *
+         * @return a number of bytes, -1 if unknown
+         */
+        long size();
+
+        /**
+         * Gets the modification time of the file.
+         *
+         * @return a number of milliseconds since the epoch
+         */
+        long modTime();
+    }
+
+    /**
+     * A rule that decides whether a file present in the source and in the destination should be copied.
+     */
+    @FunctionalInterface
+    public interface Rule {
+        /**
+         * Checks whether the source and the destination files differ.
+         *
+         * @param source the source file
+         * @param destination the destination file, with the same path as the source
+         * @return true if the source file should be copied to the destination
+         */
+        boolean differs(Entry source, Entry destination);
+
+        /**
+         * Gets a rule that compares the sizes of the files.
+         *
+         * @return a rule
+         */
+        static Rule sizeOnly() {
+            return (source, destination) -> source.size() != destination.size();
+        }
+
+        /**
+         * Gets a rule that compares the sizes and the modification times of the files, like rclone does by default.
+         *
+         * @param window the maximum difference between modification times of files that are considered identical
+         * @return a rule
+         */
+        static Rule sizeAndModTime(Duration window) {
+            final long millis = window.toMillis();
+            return (source, destination) -> source.size() != destination.size() || Math.abs(source.modTime() - destination.modTime()) > millis;
+        }
+    }
+
+    /**
+     * The statistics of a difference.
+     *
+     * @param sourceFiles the number of files in the source
+     * @param destinationFiles the number of files in the destination
+     * @param copies the number of files missing in the destination
+     * @param replaces the number of files that differ
+     * @param deletes the number of files missing in the source
+     */
+    public record Stats(long sourceFiles, long destinationFiles, long copies, long replaces, long deletes) {
+    }
+
+    private final String source;
+    private final String destination;
+    private Rule rule = Rule.sizeAndModTime(Duration.ofSeconds(1));
+    private long memoryLimit = 128L * 1024 * 1024;
+    private Path workDirectory = null;
+    private Consumer<RcloneSync> settings = sync -> {};
+    private Consumer<Progress> eventConsumer = event -> {};
+    private Consumer<IOException> exceptionConsumer = exception ->
+        Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Error while running diff sync", exception);
+
+    /**
+     * Creates a new DiffSync instance with the specified source and destination paths.
+     *
+     * @param source The source path for the sync operation
+     * @param destination The destination path for the sync operation
+     * @throws NullPointerException if either source or destination is null
+     */
+    public DiffSync(String source, String destination) {
+        if (source == null || destination == null) {
+            throw new NullPointerException("source and destination must not be null");
+        }
+        this.source = source;
+        this.destination = destination;
+    }
+
+    /**
+     * Sets the rule that decides whether a file present in the source and in the destination should be copied.
+     *
+     * @param rule a rule (default: same size and modification times within one second)
+     * @return this instance for method chaining
+     * @throws NullPointerException if rule is null
+     */
+    public DiffSync withRule(Rule rule) {
+        if (rule == null) {
+            throw new NullPointerException("rule must not be null");
+        }
+        this.rule = rule;
+        return this;
+    }
+
+    /**
+     * Sets the memory used to sort the listings.
+     * <br>Listings that do not fit are sorted on disk.
+     *
+     * @param bytes the maximum number of bytes used to store the entries of both listings (default: 128 MiB)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if bytes is less than 1 MiB
+     */
+    public DiffSync withMemoryLimit(long bytes) {
+        if (bytes < 1024 * 1024) {
+            throw new IllegalArgumentException("bytes must be at least 1 MiB");
+        }
+        this.memoryLimit = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the directory where the sorted runs and the lists of files are written.
+     *
+     * @param directory a directory (null, the default, to use the temporary directory)
+     * @return this instance for method chaining
+     */
+    public DiffSync withWorkDirectory(Path directory) {
+        this.workDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Sets the settings applied to the listings and to the synchronizations.
+     * <br>The exclusion patterns and the configuration file apply to the listings. The event consumer of the
+     * {@link RcloneSync} is replaced by the one passed to {@link #withEventConsumer(Consumer)}.
+     * <br>The settings must not enable the checksum verification: the listings have no checksums. {@link #diff(Path, Path)}
+     * and {@link #run()} throw an {@link IllegalArgumentException} if they do.
+     *
+     * @param settings a consumer that configures an {@link RcloneSync} (default: no settings)
+     * @return this instance for method chaining
+     * @throws NullPointerException if settings is null
+     */
+    public DiffSync withSettings(Consumer<RcloneSync> settings) {
+        if (settings == null) {
+            throw new NullPointerException("settings must not be null");
+        }
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * Sets a consumer to receive the progress of the synchronizations.
+     *
+     * @param eventConsumer the consumer to receive progress updates (default: empty consumer)
+     * @return this instance for method chaining
+     * @throws NullPointerException if eventConsumer is null
+     */
+    public DiffSync withEventConsumer(Consumer<Progress> eventConsumer) {
+        if (eventConsumer == null) {
+            throw new NullPointerException("eventConsumer must not be null");
+        }
+        this.eventConsumer = eventConsumer;
+        return this;
+    }
+
+    /**
+     * Sets a consumer to handle IOExceptions that occur when a synchronization is started.
+     * If not set, exceptions will be logged using java.util.logging.
+     *
+     * @param exceptionConsumer the consumer to handle IOExceptions
+     * @return this instance for method chaining
+     * @throws NullPointerException if exceptionConsumer is null
+     */
+    public DiffSync withExceptionConsumer(Consumer<IOException> exceptionConsumer) {
+        if (exceptionConsumer == null) {
+            throw new NullPointerException("exceptionConsumer must not be null");
+        }
+        this.exceptionConsumer = exceptionConsumer;
+        return this;
+    }
+
+    /**
+     * Computes the difference between the source and the destination.
+     * <br>This method blocks until both sides are listed and compared.
+     *
+     * @param copies the file where the paths of the files to copy or replace are written, one per line
+     * @param deletes the file where the paths of the files to delete are written, one per line
+     * @return the statistics of the difference
+     * @throws IOException if a listing fails or if an I/O error occurs
+     * @throws IllegalArgumentException if the settings enable the checksum verification
+     */
+    public Stats diff(Path copies, Path deletes) throws IOException {
+        try (OutputStream copiesOut = new BufferedOutputStream(Files.newOutputStream(copies), 65536);
+                OutputStream deletesOut = new BufferedOutputStream(Files.newOutputStream(deletes), 65536)) {
+            return diff(copiesOut, copiesOut, deletesOut);
+        }
+    }
+
+    private Stats diff(Path copies, Path replaces, Path deletes) throws IOException {
+        try (OutputStream copiesOut = new BufferedOutputStream(Files.newOutputStream(copies), 65536);
+                OutputStream replacesOut = new BufferedOutputStream(Files.newOutputStream(replaces), 65536);
+                OutputStream deletesOut = new BufferedOutputStream(Files.newOutputStream(deletes), 65536)) {
+            return diff(copiesOut, replacesOut, deletesOut);
+        }
+    }
+
+    private Stats diff(OutputStream copies, OutputStream replaces, OutputStream deletes) throws IOException {
+        final RcloneSync sync = createSync();
+        if (sync.checkSum()) {
+            throw new IllegalArgumentException("Checksums are not supported, use a rule to compare the files");
+        }
+        final Path directory = workDirectory == null ? Files.createTempDirectory("rclone-diff") : Files.createTempDirectory(workDirectory, "rclone-diff");
+        try {
+            return new DiffEngine(directory, memoryLimit, rule).diff(new RemoteListing(sync, source, directory, false),
+                new RemoteListing(sync, destination, directory, true), copies, replaces, deletes);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Computes the difference between the source and the destination, then starts the synchronizations asynchronously.
+     * <br>This method blocks until both sides are listed and compared.
+     *
+     * @return a {@link Synchronization} object that can be used to monitor and control the synchronizations
+     * @throws IOException if a listing fails or if an I/O error occurs
+     * @throws IllegalArgumentException if the settings enable the checksum verification
+     */
+    public Synchronization run() throws IOException {
+        final List<Path> files = new ArrayList<>(3);
+        final Stats stats;
+        try {
+            files.add(createTempFile("rclone-copies"));
+            files.add(createTempFile("rclone-replaces"));
+            files.add(createTempFile("rclone-deletes"));
+            stats = diff(files.get(0), files.get(1), files.get(2));
+        } catch (IOException | RuntimeException e) {
+            files.forEach(DiffSync::deleteQuietly);
+            throw e;
+        }
+        final Path copies = files.get(0);
+        final Path replaces = files.get(1);
+        final Path deletes = files.get(2);
+        final List<List<RcloneSync>> stages = new ArrayList<>();
+        final List<RcloneSync> copySyncs = new ArrayList<>(2);
+        if (stats.copies() > 0) {
+            // The destination was already compared, rclone does not have to check it again
+            copySyncs.add(createSync().withOperation("copy").withFilesFromRaw(copies.toString()).withArguments("--no-check-dest"));
+        }
+        if (stats.replaces() > 0) {
+            // The files differ according to the rule, rclone must not skip them. It checks that they exist in the
+            // destination, so they are reported as replaced
+            copySyncs.add(createSync().withOperation("copy").withFilesFromRaw(replaces.toString()).withArguments("--ignore-times"));
+        }
+        if (!copySyncs.isEmpty()) {
+            stages.add(copySyncs);
+        }
+        if (stats.deletes() > 0) {
+            // The listed files are missing in the source, so the sync deletes them
+            stages.add(List.of(createSync().withFilesFromRaw(deletes.toString())));
+        }
+        final CompositeSynchronization synchronization = new CompositeSynchronization(eventConsumer, exceptionConsumer);
+        synchronization.addCompletionAction(() -> files.forEach(DiffSync::deleteQuietly));
+        synchronization.start(stages);
+        return synchronization;
+    }
+
+    private Path createTempFile(String prefix) throws IOException {
+        return workDirectory == null ? Files.createTempFile(prefix, ".txt") : Files.createTempFile(workDirectory, prefix, ".txt");
+    }
+
+    private RcloneSync createSync() {
+        final RcloneSync sync = newSync(source, destination);
+        settings.accept(sync);
+        return sync;
+    }
+
+    /**
+     * Creates a new synchronization.
+     *
+     * @param source the source
+     * @param destination the destination
+     * @return a new {@link RcloneSync} instance
+     */
+    RcloneSync newSync(String source, String destination) {
+        return new RcloneSync(source, destination);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Temporary files are deleted on a best effort basis
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(DiffSync::deleteQuietly);
+        } catch (IOException e) {
+            // Temporary files are deleted on a best effort basis
+        }
+    }
+
+    /** The listing of a remote by an rclone process. */
+    private static class RemoteListing implements DiffEngine.Listing {
+        private final RcloneSync sync;
+        private final String remote;
+        private final Path directory;
+        private final boolean mayNotExist;
+        private volatile Process process;
+        private volatile boolean cancelled;
+
+        private RemoteListing(RcloneSync sync, String remote, Path directory, boolean mayNotExist) {
+            this.sync = sync;
+            this.remote = remote;
+            this.directory = directory;
+            this.mayNotExist = mayNotExist;
+        }
+
+        @Override
+        public void read(LsJsonParser.EntryConsumer consumer) throws IOException {
+            final Path errors = Files.createTempFile(directory, "errors", ".txt");
+            process = sync.startListing(remote, errors, LSJSON_OPTIONS);
+            if (cancelled) {
+                process.destroy();
+            }
+            try (InputStream in = process.getInputStream()) {
+                new LsJsonParser(in).parse(consumer);
+            } catch (IOException e) {
+                process.destroy();
+                throw e;
+            }
+            final int exitCode;
+            try {
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroy();
+                throw new InterruptedIOException("Interrupted while listing " + remote);
+            }
+            // The destination may not exist yet
+            if (exitCode != 0 && !(mayNotExist && exitCode == DIRECTORY_NOT_FOUND_EXIT_CODE)) {
+                throw new IOException("Unable to list " + remote + " (exit code " + exitCode + "): " + Files.readString(errors, StandardCharsets.UTF_8).trim());
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            final Process current = process;
+            if (current != null) {
+                current.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.fathzer.rclonesync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A cursor over listing entries sorted by path.
+ * <br>The cursor itself is the current entry: its accessors return the values of the entry the last call to
+ * {@link #next()} moved to. Paths are compared as UTF-8 bytes, which is the code point order.
+ */
+interface EntryCursor extends DiffSync.Entry, Closeable {
+    /**
+     * Moves to the next entry.
+     *
+     * @return false if there is no more entry
+     * @throws IOException if an I/O error occurs
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Gets the buffer that contains the UTF-8 path of the current entry.
+     *
+     * @return a buffer, that may be reused when the cursor moves
+     */
+    byte[] pathBytes();
+
+    /**
+     * Gets the offset of the path in {@link #pathBytes()}.
+     *
+     * @return an offset
+     */
+    int pathOffset();
+
+    /**
+     * Gets the length of the path in {@link #pathBytes()}.
+     *
+     * @return a number of bytes
+     */
+    int pathLength();
+
+    @Override
+    default String path() {
+        return new String(pathBytes(), pathOffset(), pathLength(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the paths of the current entries of two cursors.
+     *
+     * @param a a cursor
+     * @param b another cursor
+     * @return a negative integer, zero, or a positive integer as the path of a is less than, equal to, or greater than the one of b
+     */
+    static int compare(EntryCursor a, EntryCursor b) {
+        final int aFrom = a.pathOffset();
+        final int bFrom = b.pathOffset();
+        return Arrays.compareUnsigned(a.pathBytes(), aFrom, aFrom + a.pathLength(), b.pathBytes(), bFrom, bFrom + b.pathLength());
+    }
+}
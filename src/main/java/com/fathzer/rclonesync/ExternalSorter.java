@@ -0,0 +1,394 @@
+package com.fathzer.rclonesync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts listing entries by path under a memory cap.
+ * <br>Entries are stored in a compact binary form (path length, UTF-8 path, size, modification time) in a single
+ * byte array. When the memory cap is reached, the entries are sorted and spilled to a run file in a temporary directory.
+ * Once all the entries are added, the runs are merged.
+ */
+class ExternalSorter implements Closeable {
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    /** The bytes of a record that are not the path: path length, size and modification time */
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8;
+    /** The memory used by an entry in addition to its record: its offset and the merge sort buffer */
+    private static final int INDEX_OVERHEAD = 4 + 4;
+    private static final int BUFFER_SIZE = 65536;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final Path directory;
+    private final long memoryLimit;
+    private final List<Path> runs = new ArrayList<>();
+    private byte[] data = new byte[BUFFER_SIZE];
+    private int[] sortBuffer = new int[0];
+    private int used;
+    private int[] offsets = new int[1024];
+    private int count;
+    private long size;
+
+    /**
+     * Creates a sorter.
+     *
+     * @param directory the directory where the runs are written
+     * @param memoryLimit the maximum number of bytes used to store the entries in memory
+     */
+    ExternalSorter(Path directory, long memoryLimit) {
+        this.directory = directory;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param path a buffer that contains the UTF-8 path of the entry
+     * @param length the length of the path
+     * @param entrySize the size of the entry
+     * @param modTime the modification time of the entry
+     * @throws IOException if the entries can't be spilled to disk
+     */
+    void add(byte[] path, int length, long entrySize, long modTime) throws IOException {
+        final int recordSize = RECORD_OVERHEAD + length;
+        final long needed = (long) used + recordSize;
+        if (count > 0 && (needed + (long) (count + 1) * INDEX_OVERHEAD > memoryLimit || needed > MAX_ARRAY_SIZE)) {
+            spill();
+        }
+        ensureCapacity(recordSize);
+        offsets[count++] = used;
+        INT.set(data, used, length);
+        System.arraycopy(path, 0, data, used + 4, length);
+        LONG.set(data, used + 4 + length, entrySize);
+        LONG.set(data, used + 12 + length, modTime);
+        used += recordSize;
+        size++;
+    }
+
+    private void ensureCapacity(int recordSize) {
+        final long needed = (long) used + recordSize;
+        if (needed > data.length) {
+            // Grows the array, without exceeding the memory limit if possible
+            final long capacity = Math.max(needed, Math.min((long) data.length * 2, memoryLimit));
+            data = Arrays.copyOf(data, (int) Math.min(capacity, MAX_ARRAY_SIZE));
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+    }
+
+    /**
+     * Gets the number of entries added to this sorter.
+     *
+     * @return a number of entries
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of runs spilled to disk.
+     *
+     * @return a number of runs
+     */
+    int runs() {
+        return runs.size();
+    }
+
+    private void spill() throws IOException {
+        sort();
+        final Path run = Files.createTempFile(directory, "run", ".bin");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            for (int i = 0; i < count; i++) {
+                final int offset = offsets[i];
+                out.write(data, offset, RECORD_OVERHEAD + (int) INT.get(data, offset));
+            }
+        }
+        count = 0;
+        used = 0;
+    }
+
+    /**
+     * Gets a cursor over the sorted entries.
+     * <br>No entry should be added once this method was called.
+     *
+     * @return a cursor, that should be closed after use
+     * @throws IOException if an I/O error occurs
+     */
+    EntryCursor cursor() throws IOException {
+        if (runs.isEmpty()) {
+            sort();
+            return new MemoryCursor();
+        }
+        if (count > 0) {
+            spill();
+        }
+        final List<EntryCursor> cursors = new ArrayList<>(runs.size());
+        try {
+            for (Path run : runs) {
+                cursors.add(new RunCursor(run));
+            }
+        } catch (IOException e) {
+            for (EntryCursor cursor : cursors) {
+                cursor.close();
+            }
+            throw e;
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+    }
+
+    private void sort() {
+        if (sortBuffer.length < count) {
+            sortBuffer = new int[offsets.length];
+        }
+        mergeSort(offsets, sortBuffer, 0, count);
+    }
+
+    /**
+     * Sorts offsets[from, to[ using buffer as a temporary storage.
+     */
+    private void mergeSort(int[] array, int[] buffer, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                final int value = array[i];
+                int j = i - 1;
+                while (j >= from && compare(array[j], value) > 0) {
+                    array[j + 1] = array[j];
+                    j--;
+                }
+                array[j + 1] = value;
+            }
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        mergeSort(array, buffer, from, middle);
+        mergeSort(array, buffer, middle, to);
+        if (compare(array[middle - 1], array[middle]) <= 0) {
+            // Already sorted
+            return;
+        }
+        System.arraycopy(array, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+                array[i] = buffer[left++];
+            } else {
+                array[i] = buffer[right++];
+            }
+        }
+    }
+
+    private int compare(int offset1, int offset2) {
+        final int from1 = offset1 + 4;
+        final int from2 = offset2 + 4;
+        return Arrays.compareUnsigned(data, from1, from1 + (int) INT.get(data, offset1), data, from2, from2 + (int) INT.get(data, offset2));
+    }
+
+    /** A cursor over the sorted entries in memory. */
+    private class MemoryCursor implements EntryCursor {
+        private int index = -1;
+        private int offset;
+        private int length;
+
+        @Override
+        public boolean next() {
+            if (index + 1 >= count) {
+                index = count;
+                return false;
+            }
+            index++;
+            offset = offsets[index];
+            length = (int) INT.get(data, offset);
+            return true;
+        }
+
+        @Override
+        public byte[] pathBytes() {
+            return data;
+        }
+
+        @Override
+        public int pathOffset() {
+            return offset + 4;
+        }
+
+        @Override
+        public int pathLength() {
+            return length;
+        }
+
+        @Override
+        public long size() {
+            return (long) LONG.get(data, offset + 4 + length);
+        }
+
+        @Override
+        public long modTime() {
+            return (long) LONG.get(data, offset + 12 + length);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    }
+
+    /** A cursor over a run file. */
+    private static class RunCursor implements EntryCursor {
+        private final DataInputStream in;
+        private byte[] path = new byte[256];
+        private int length;
+        private long size;
+        private long modTime;
+
+        private RunCursor(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            final int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+            if (length > path.length) {
+                path = new byte[Math.max(length, path.length * 2)];
+            }
+            try {
+                in.readFully(path, 0, length);
+                size = in.readLong();
+                modTime = in.readLong();
+            } catch (EOFException e) {
+                throw new IOException("Truncated run file", e);
+            }
+            return true;
+        }
+
+        @Override
+        public byte[] pathBytes() {
+            return path;
+        }
+
+        @Override
+        public int pathOffset() {
+            return 0;
+        }
+
+        @Override
+        public int pathLength() {
+            return length;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long modTime() {
+            return modTime;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /** A cursor that merges sorted cursors. */
+    private static class MergeCursor implements EntryCursor {
+        private final List<EntryCursor> cursors;
+        private final PriorityQueue<EntryCursor> queue;
+        private EntryCursor current;
+        private boolean started;
+
+        private MergeCursor(List<EntryCursor> cursors) {
+            this.cursors = cursors;
+            this.queue = new PriorityQueue<>(cursors.size(), EntryCursor::compare);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (!started) {
+                started = true;
+                for (EntryCursor cursor : cursors) {
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+            } else if (current != null && current.next()) {
+                queue.add(current);
+            }
+            current = queue.poll();
+            return current != null;
+        }
+
+        @Override
+        public byte[] pathBytes() {
+            return current.pathBytes();
+        }
+
+        @Override
+        public int pathOffset() {
+            return current.pathOffset();
+        }
+
+        @Override
+        public int pathLength() {
+            return current.pathLength();
+        }
+
+        @Override
+        public long size() {
+            return current.size();
+        }
+
+        @Override
+        public long modTime() {
+            return current.modTime();
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            for (EntryCursor cursor : cursors) {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A class that synchronizes one source to several destinations.
+ * <br>The source is listed only once, then one rclone sync per destination is run in parallel, restricted
+ * to the listed files through rclone's <code>--files-from</code> option. This avoids listing the source
+ * once per destination.
+ * <br>Files that are added to the source after it was listed are ignored until the next run.
+ * When no exclusion pattern is set, destination files that are not in the source are deleted, as with a
+ * standard sync. When some exclusion patterns are set, such files are kept (rclone can't distinguish them
+ * from excluded files).
+ */
+public class FanOutSync {
+    private final String source;
+    private final List<String> destinations;
+    private Consumer<RcloneSync> settings = sync -> {};
+    private BiConsumer<String, Progress> eventConsumer = (destination, progress) -> {};
+
+    /**
+     * Creates a new FanOutSync instance with the specified source and destination paths.
+     *
+     * @param source The source path for the sync operation
+     * @param destinations The destination paths for the sync operation
+     * @throws NullPointerException if source, destinations or one of the destinations is null
+     * @throws IllegalArgumentException if destinations is empty
+     */
+    public FanOutSync(String source, String... destinations) {
+        if (source == null || destinations == null) {
+            throw new NullPointerException("source and destinations must not be null");
+        }
+        if (destinations.length == 0) {
+            throw new IllegalArgumentException("At least one destination is required");
+        }
+        this.source = source;
+        this.destinations = List.of(destinations);
+    }
+
+    /**
+     * Sets the settings applied to the synchronization of every destination.
+     * <br>The consumer is called with the {@link RcloneSync} of each destination, and with the one used to list the source.
+     * Its exclusion patterns and configuration file are used to list the source.
+     * <br>The event consumer of the {@link RcloneSync} is replaced by the one passed to {@link #withEventConsumer(BiConsumer)}.
+     * <br>If a {@link RcloneSync#withCheckpointJournal(Path) checkpoint journal} is set, each destination gets its own
+     * journal, whose name is the one of the journal followed by a dot and the index of the destination (<code>.0</code>,
+     * <code>.1</code>, ...). So the syncs of different destinations don't write to, or delete, the same journal.
+     *
+     * @param settings a consumer that configures an {@link RcloneSync} (default: no settings)
+     * @return this instance for method chaining
+     * @throws NullPointerException if settings is null
+     */
+    public FanOutSync withSettings(Consumer<RcloneSync> settings) {
+        if (settings == null) {
+            throw new NullPointerException("settings must not be null");
+        }
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * Sets a consumer to receive progress updates during the sync operation.
+     *
+     * @param eventConsumer the consumer to receive the destination and its progress updates (default: empty consumer)
+     * @return this instance for method chaining
+     * @throws NullPointerException if eventConsumer is null
+     */
+    public FanOutSync withEventConsumer(BiConsumer<String, Progress> eventConsumer) {
+        if (eventConsumer == null) {
+            throw new NullPointerException("eventConsumer must not be null");
+        }
+        this.eventConsumer = eventConsumer;
+        return this;
+    }
+
+    /**
+     * Lists the source, then starts the synchronization of all destinations asynchronously.
+     * <br>This method blocks while the source is listed.
+     *
+     * @return a {@link FanOutSynchronization} object that can be used to monitor and control the operation
+     * @throws IOException if the listing fails or if an I/O error occurs when starting a process
+     */
+    public FanOutSynchronization run() throws IOException {
+        final Path filesFrom = Files.createTempFile("rclone-sync4j-", ".lst");
+        filesFrom.toFile().deleteOnExit();
+        final FanOutSynchronization fanOut = new FanOutSynchronization(filesFrom);
+        try {
+            createSync(0).listSource(filesFrom);
+            for (int i = 0; i < destinations.size(); i++) {
+                final String destination = destinations.get(i);
+                final RcloneSync sync = createSync(i).withFilesFromRaw(filesFrom.toString());
+                sync.withDeleteExcluded(!sync.hasExclusions());
+                sync.withEventConsumer(progress -> {
+                    fanOut.setProgress(destination, progress);
+                    eventConsumer.accept(destination, progress);
+                });
+                fanOut.add(destination, sync.run());
+            }
+            return fanOut;
+        } catch (IOException | RuntimeException e) {
+            fanOut.cancel();
+            Files.deleteIfExists(filesFrom);
+            throw e;
+        }
+    }
+
+    private RcloneSync createSync(int index) {
+        final RcloneSync sync = newSync(source, destinations.get(index));
+        settings.accept(sync);
+        final Path journal = sync.checkpointJournal();
+        if (journal != null) {
+            sync.withCheckpointJournal(journal.resolveSibling(journal.getFileName() + "." + index));
+        }
+        return sync;
+    }
+
+    /**
+     * Creates a new synchronization.
+     *
+     * @param source the source
+     * @param destination the destination
+     * @return a new {@link RcloneSync} instance
+     */
+    RcloneSync newSync(String source, String destination) {
+        return new RcloneSync(source, destination);
+    }
+}
@@ -0,0 +1,110 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents an ongoing fan-out synchronization operation.
+ * <br>It gives access to the synchronization of every destination and to an aggregate view of all of them.
+ * @see FanOutSync
+ */
+public class FanOutSynchronization {
+    private final Path filesFrom;
+    private final Map<String, Synchronization> synchronizations = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Progress> progresses = new ConcurrentHashMap<>();
+    private volatile boolean cancelled;
+
+    FanOutSynchronization(Path filesFrom) {
+        this.filesFrom = filesFrom;
+    }
+
+    void add(String destination, Synchronization synchronization) {
+        synchronizations.put(destination, synchronization);
+    }
+
+    void setProgress(String destination, Progress progress) {
+        progresses.put(destination, progress);
+    }
+
+    /**
+     * Gets the synchronizations of the destinations.
+     *
+     * @return an unmodifiable map whose keys are the destinations, in the order they were passed to {@link FanOutSync}
+     */
+    public Map<String, Synchronization> synchronizations() {
+        synchronized (synchronizations) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(synchronizations));
+        }
+    }
+
+    /**
+     * Gets the last progress of a destination.
+     *
+     * @param destination the destination
+     * @return the last progress received for this destination, or empty if no progress was received yet
+     */
+    public Optional<Progress> progress(String destination) {
+        return Optional.ofNullable(progresses.get(destination));
+    }
+
+    /**
+     * Gets the aggregated progress of all destinations.
+     * <br>Bytes and checks are summed, the throughput is the total throughput and the eta is the longest one.
+     *
+     * @return the aggregated progress, or empty if no progress was received yet
+     */
+    public Optional<Progress> progress() {
+        return progresses.isEmpty() ? Optional.empty() : Optional.of(Progress.aggregate(progresses.values()));
+    }
+
+    /**
+     * Gets the aggregated result of all destinations.
+     * <br>The file counts are summed and the exit code is the first non-zero exit code, if any.
+     *
+     * @return a new result that is a snapshot of the current results of the destinations
+     */
+    public SynchronizationResult result() {
+        final SynchronizationResult result = new SynchronizationResult();
+        synchronizations().values().forEach(synchronization -> result.add(synchronization.result()));
+        return result;
+    }
+
+    /**
+     * Waits for the synchronization of all destinations to complete.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void waitFor() throws InterruptedException {
+        for (Synchronization synchronization : synchronizations().values()) {
+            synchronization.waitFor();
+        }
+        try {
+            Files.deleteIfExists(filesFrom);
+        } catch (IOException e) {
+            // The file will be deleted when the JVM exits
+        }
+    }
+
+    /**
+     * Attempts to cancel the synchronization of all destinations.
+     */
+    public void cancel() {
+        this.cancelled = true;
+        synchronizations().values().forEach(Synchronization::cancel);
+    }
+
+    /**
+     * Checks if the synchronization has been cancelled.
+     *
+     * @return true if {@link #cancel()} has been called, false otherwise
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+}
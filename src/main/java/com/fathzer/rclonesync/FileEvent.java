@@ -0,0 +1,21 @@
+package com.fathzer.rclonesync;
+
+/**
+ * Represents a change made to a file of the destination during a synchronization.
+ *
+ * @param path The path of the file, relative to the destination root
+ * @param type The type of change
+ */
+public record FileEvent(String path, Type type) {
+    /**
+     * The type of change made to a file.
+     */
+    public enum Type {
+        /** The file was copied and did not exist in the destination */
+        COPIED,
+        /** The file was copied and replaced an existing file */
+        REPLACED,
+        /** The file was deleted from the destination */
+        DELETED
+    }
+}
@@ -0,0 +1,80 @@
+package com.fathzer.rclonesync;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Represents a file that rclone failed to synchronize.
+ *
+ * @param path The path of the file, relative to the source root
+ * @param category The category of the error
+ * @param message The error message reported by rclone
+ */
+public record FileFailure(String path, Category category, String message) {
+    /** The messages of the errors that concern a directory */
+    private static final List<String> DIRECTORY_ERRORS = List.of("error reading source directory",
+        "error reading destination directory", "failed to make directory", "failed to mkdir", "failed to rmdir",
+        "failed to remove directory", "failed to list");
+
+    /**
+     * Checks whether this failure concerns a directory rather than a file, according to its message
+     * (e.g. "error reading source directory").
+     *
+     * @return true if the failure concerns a directory
+     */
+    public boolean isDirectory() {
+        final String lowerCase = message.toLowerCase(Locale.ROOT);
+        return DIRECTORY_ERRORS.stream().anyMatch(lowerCase::contains);
+    }
+
+    /**
+     * The category of an error.
+     */
+    public enum Category {
+        /** The remote limits the request rate (e.g. HTTP 429, rateLimitExceeded, SlowDown) */
+        RATE_LIMIT(List.of("rate limit", "ratelimit", "too many requests", "slowdown", "slow down"), "429"),
+        /** The access to the file was denied */
+        PERMISSION(List.of("permission denied", "access denied", "accessdenied", "forbidden", "unauthorized"), "403", "401"),
+        /** The storage is full or a storage quota is exceeded */
+        NO_SPACE(List.of("no space left", "quota", "insufficient storage"), "507"),
+        /** The file does not exist anymore */
+        NOT_FOUND(List.of("no such file", "not found", "notfound"), "404"),
+        /** The file was corrupted during the transfer */
+        CORRUPTED(List.of("corrupted", "hash differ", "hashes differ", "checksum")),
+        /** A network error occurred */
+        NETWORK(List.of("connection reset", "connection refused", "timeout", "timed out", "no such host", "broken pipe",
+            "unexpected eof", "network is unreachable"), "tls", "502", "503", "504"),
+        /** Any other error */
+        OTHER(List.of());
+
+        private final List<String> keywords;
+        /** The keywords that only match whole words (a status code should not match a number that contains it) */
+        private final Pattern tokens;
+
+        Category(List<String> keywords, String... tokens) {
+            this.keywords = keywords;
+            this.tokens = tokens.length == 0 ? null
+                : Pattern.compile(Stream.of(tokens).map(Pattern::quote).collect(Collectors.joining("|", "\\b(?:", ")\\b")));
+        }
+
+        /**
+         * Gets the category of an error message.
+         *
+         * @param message an rclone error message
+         * @return the first category whose keywords are found in the message, {@link #OTHER} if none matches
+         */
+        public static Category of(String message) {
+            final String lowerCase = message.toLowerCase(Locale.ROOT);
+            for (Category category : values()) {
+                if (category.keywords.stream().anyMatch(lowerCase::contains)
+                        || (category.tokens != null && category.tokens.matcher(lowerCase).find())) {
+                    return category;
+                }
+            }
+            return OTHER;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.fathzer.rclonesync;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * A {@link LeaseStore} in a directory of a file system shared by the nodes (a local directory, NFSv4, SMB, ...).
+ * <br>Each key has a lease file in the <code>leases</code> sub-directory, and a file in the <code>queue</code>
+ * sub-directory while it is queued. The files are replaced atomically, and every change is made while holding an
+ * exclusive lock on the <code>.lock</code> file of the directory. As the operating system releases the lock when a
+ * process dies, a crashed node can't block the other ones.
+ * <br>The files are forced to the storage device before they are renamed. A lease file whose content is lost anyway is
+ * considered expired.
+ * <br>Lease expiries are computed with the clocks of the nodes, which should be synchronized (with NTP for instance).
+ * A lease is only considered expired once its expiry plus the maximum clock skew is elapsed.
+ */
+public class FileLeaseStore implements LeaseStore {
+    /** The expiry of a released lease */
+    private static final Instant RELEASED = Instant.EPOCH;
+    /** The prefix of the temporary files, that can't be the first character of an encoded key */
+    private static final String TEMP_PREFIX = ".";
+    // A JVM can't lock the same file twice, the stores of the same directory share a monitor
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final Path leases;
+    private final Path queue;
+    private final Path lockFile;
+    private final Object monitor;
+    private final Clock clock;
+    private Duration maxClockSkew = Duration.ofSeconds(5);
+
+    @FunctionalInterface
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param directory the directory of the store, it is created if it does not exist
+     * @throws IOException if the directory can't be created
+     */
+    public FileLeaseStore(Path directory) throws IOException {
+        this(directory, Clock.systemUTC());
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param directory the directory of the store, it is created if it does not exist
+     * @param clock the clock used to compute the lease expiries
+     * @throws IOException if the directory can't be created
+     */
+    FileLeaseStore(Path directory, Clock clock) throws IOException {
+        final Path root = Files.createDirectories(directory).toRealPath();
+        this.leases = Files.createDirectories(root.resolve("leases"));
+        this.queue = Files.createDirectories(root.resolve("queue"));
+        this.lockFile = root.resolve(".lock");
+        this.monitor = MONITORS.computeIfAbsent(lockFile, k -> new Object());
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the maximum difference between the clocks of the nodes.
+     *
+     * @param maxClockSkew a duration (default: 5 seconds)
+     * @return this instance for method chaining
+     * @throws NullPointerException if maxClockSkew is null
+     * @throws IllegalArgumentException if maxClockSkew is negative
+     */
+    public FileLeaseStore withMaxClockSkew(Duration maxClockSkew) {
+        if (maxClockSkew == null) {
+            throw new NullPointerException("maxClockSkew must not be null");
+        }
+        if (maxClockSkew.isNegative()) {
+            throw new IllegalArgumentException("maxClockSkew must not be negative");
+        }
+        this.maxClockSkew = maxClockSkew;
+        return this;
+    }
+
+    @Override
+    public Optional<Lease> acquire(String key, String owner, Duration duration) throws IOException {
+        return locked(() -> {
+            final Path file = leases.resolve(encode(key));
+            final Lease current = read(key, file);
+            final Instant now = clock.instant();
+            if (current != null && current.expiry().plus(maxClockSkew).isAfter(now)) {
+                return Optional.empty();
+            }
+            final Lease lease = new Lease(key, owner, current == null ? 1 : current.token() + 1, now.plus(duration));
+            write(file, lease);
+            return Optional.of(lease);
+        });
+    }
+
+    @Override
+    public Optional<Lease> renew(Lease lease, Duration duration) throws IOException {
+        return locked(() -> {
+            final Path file = leases.resolve(encode(lease.key()));
+            if (!isHeld(lease, read(lease.key(), file))) {
+                return Optional.empty();
+            }
+            final Lease renewed = new Lease(lease.key(), lease.owner(), lease.token(), clock.instant().plus(duration));
+            write(file, renewed);
+            return Optional.of(renewed);
+        });
+    }
+
+    @Override
+    public void release(Lease lease, boolean done) throws IOException {
+        locked(() -> {
+            final Path file = leases.resolve(encode(lease.key()));
+            if (isHeld(lease, read(lease.key(), file))) {
+                // The lease file is kept in order to preserve the token sequence of the key
+                write(file, new Lease(lease.key(), lease.owner(), lease.token(), RELEASED));
+                if (done) {
+                    Files.deleteIfExists(queue.resolve(encode(lease.key())));
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void submit(String key) throws IOException {
+        locked(() -> {
+            final Path file = queue.resolve(encode(key));
+            if (!Files.exists(file)) {
+                writeAtomically(file, Long.toString(clock.millis()));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> queued() throws IOException {
+        record Queued(String key, long time) {}
+        final List<Queued> keys = new ArrayList<>();
+        try (Stream<Path> files = Files.list(queue)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                final String name = file.getFileName().toString();
+                if (!name.startsWith(TEMP_PREFIX)) {
+                    try {
+                        keys.add(new Queued(decode(name), parseTime(Files.readString(file, UTF_8))));
+                    } catch (NoSuchFileException e) {
+                        // The key was done in the meantime
+                    }
+                }
+            }
+        }
+        keys.sort(Comparator.comparingLong(Queued::time).thenComparing(Queued::key));
+        return keys.stream().map(Queued::key).toList();
+    }
+
+    private static long parseTime(String content) {
+        try {
+            return Long.parseLong(content.trim());
+        } catch (NumberFormatException e) {
+            // The content was lost, the key stays queued
+            return 0;
+        }
+    }
+
+    private static boolean isHeld(Lease lease, Lease current) {
+        return current != null && current.token() == lease.token() && current.owner().equals(lease.owner())
+            && !current.expiry().equals(RELEASED);
+    }
+
+    private <T> T locked(Action<T> action) throws IOException {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // The lock is released when the channel is closed
+                channel.lock();
+                return action.run();
+            }
+        }
+    }
+
+    private static Lease read(String key, Path file) throws IOException {
+        final String content;
+        try {
+            content = Files.readString(file, UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // token, expiry and owner, which is the last field as it may contain anything
+        final String[] fields = content.split("\n", 3);
+        if (fields.length == 3) {
+            try {
+                return new Lease(key, fields[2], Long.parseLong(fields[0]), Instant.ofEpochMilli(Long.parseLong(fields[1])));
+            } catch (NumberFormatException e) {
+                // Handled below
+            }
+        }
+        // The file system lost the content of the file (after a power loss for instance), the lease can't be held by
+        // anyone: it is considered released, otherwise the key would be locked out forever
+        Logger.getLogger(FileLeaseStore.class.getName()).warning("Invalid lease file " + file + ", the lease is considered expired");
+        return new Lease(key, "", 0, RELEASED);
+    }
+
+    private static void write(Path file, Lease lease) throws IOException {
+        writeAtomically(file, lease.token() + "\n" + lease.expiry().toEpochMilli() + "\n" + lease.owner());
+    }
+
+    private static void writeAtomically(Path file, String content) throws IOException {
+        // Readers never see a partially written file, even if the node crashes while writing
+        final Path temp = Files.createTempFile(file.getParent(), TEMP_PREFIX, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // Without it, the rename could reach the storage before the content, and a power loss would leave an empty file
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String encode(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(UTF_8));
+    }
+
+    private static String decode(String name) {
+        return new String(Base64.getUrlDecoder().decode(name), UTF_8);
+    }
+}
@@ -0,0 +1,173 @@
+package com.fathzer.rclonesync;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with logarithmic buckets.
+ * <br>Values lower than 64 are counted exactly. Greater values are counted in buckets whose width is 1/32 of their
+ * power of 2, so that the values returned by {@link #valueAtPercentile(double)} are accurate to about 3%.
+ * The memory used is fixed (about 15 KB), whatever the number and the range of the recorded values, and recording
+ * a value allocates nothing.
+ * <br>Values can be recorded while the histogram is read, from another thread. Use {@link #snapshot()} to get
+ * consistent statistics from a histogram that is still being updated.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** The values lower than this one have their own bucket */
+    private static final long EXACT_LIMIT = 2L * SUB_BUCKETS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value a value, negative values are recorded as 0
+     */
+    void record(long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     *
+     * @param other a histogram
+     */
+    void add(Histogram other) {
+        long added = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long bucketCount = other.counts.get(i);
+            if (bucketCount != 0) {
+                counts.addAndGet(i, bucketCount);
+                added += bucketCount;
+            }
+        }
+        if (added != 0) {
+            count.addAndGet(added);
+            sum.addAndGet(other.sum.get());
+            min.accumulateAndGet(other.min.get(), Math::min);
+            max.accumulateAndGet(other.max.get(), Math::max);
+        }
+    }
+
+    /**
+     * Gets a copy of this histogram.
+     *
+     * @return a histogram that is not updated when values are recorded in this one
+     */
+    public Histogram snapshot() {
+        final Histogram snapshot = new Histogram();
+        snapshot.add(this);
+        return snapshot;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return a number of values
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * Gets the lowest recorded value.
+     *
+     * @return a value, 0 if no value was recorded
+     */
+    public long min() {
+        return count() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * Gets the highest recorded value.
+     *
+     * @return a value, 0 if no value was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return a sum
+     */
+    public long sum() {
+        return sum.get();
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean, 0 if no value was recorded
+     */
+    public double mean() {
+        final long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    /**
+     * Gets the value below which a percentage of the recorded values fall.
+     *
+     * @param percentile a percentage between 0 and 100 (e.g. 99 for the 99th percentile)
+     * @return the highest value that is equivalent, within the histogram precision, to the value at this percentile,
+     * 0 if no value was recorded
+     * @throws IllegalArgumentException if percentile is not between 0 and 100
+     */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        final long n = count();
+        final long rank = Math.max(1, (long) Math.ceil(percentile * n / 100));
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS && n != 0; i++) {
+            cumulated += counts.get(i);
+            if (cumulated >= rank) {
+                return Math.min(highestEquivalentValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    private static int index(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        // The value is in [2^(shift+5), 2^(shift+6)), which is split in 32 buckets
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        final int shift = (index >> SUB_BUCKET_BITS) - 1;
+        final long top = (index & (SUB_BUCKETS - 1)) + (long) SUB_BUCKETS;
+        // Overflows to Long.MAX_VALUE for the last bucket
+        return ((top + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        final Histogram snapshot = snapshot();
+        return "Histogram{count=" + snapshot.count() + ", min=" + snapshot.min() + ", p50=" + snapshot.valueAtPercentile(50) +
+            ", p90=" + snapshot.valueAtPercentile(90) + ", p99=" + snapshot.valueAtPercentile(99) + ", max=" + snapshot.max() + '}';
+    }
+}
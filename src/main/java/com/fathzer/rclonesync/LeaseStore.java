@@ -0,0 +1,99 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A store of leases and queued shards shared by the nodes that run synchronizations.
+ * <br>A lease grants a node the exclusive right to run the synchronization of a key (a job or a shard) until it expires.
+ * The node keeps it alive with heartbeats (see {@link #renew(Lease, Duration)}); if the node dies, the lease expires and
+ * another node can acquire it.
+ * <br>Each acquisition of a key gets a token greater than the previous ones. It fences out the calls of a node that lost
+ * its lease: its renewals and releases are rejected. It does not protect the remotes the synchronization writes to,
+ * see {@link SyncCoordinator}.
+ * <br>Implementations must be safe to use from several threads and several processes.
+ * @see FileLeaseStore
+ * @see SyncCoordinator
+ */
+public interface LeaseStore {
+    /**
+     * A lease.
+     *
+     * @param key The leased key
+     * @param owner The identifier of the node that holds the lease
+     * @param token The fencing token of the lease
+     * @param expiry The instant when the lease expires if it is not renewed
+     */
+    record Lease(String key, String owner, long token, Instant expiry) {}
+
+    /**
+     * Acquires the lease of a key.
+     *
+     * @param key a key
+     * @param owner the identifier of the node that requests the lease
+     * @param duration the duration of the lease
+     * @return the lease, or an empty optional if another node holds a lease that is not expired
+     * @throws IOException if the store can't be accessed
+     */
+    Optional<Lease> acquire(String key, String owner, Duration duration) throws IOException;
+
+    /**
+     * Extends a lease.
+     *
+     * @param lease a lease
+     * @param duration the new duration of the lease, from now
+     * @return the renewed lease, or an empty optional if the lease was lost (it expired and another node acquired it,
+     * or it was released)
+     * @throws IOException if the store can't be accessed
+     */
+    Optional<Lease> renew(Lease lease, Duration duration) throws IOException;
+
+    /**
+     * Releases a lease.
+     * <br>Nothing is done if the lease was lost.
+     *
+     * @param lease a lease
+     * @param done true if the work of the key is done, in which case the key is removed from the queue
+     * @throws IOException if the store can't be accessed
+     */
+    void release(Lease lease, boolean done) throws IOException;
+
+    /**
+     * Adds a key to the queue of the shards waiting for a node.
+     * <br>Nothing is done if the key is already queued.
+     *
+     * @param key a key
+     * @throws IOException if the store can't be accessed
+     */
+    void submit(String key) throws IOException;
+
+    /**
+     * Gets the queued keys.
+     * <br>A key stays queued while its work is running, until a lease of the key is released with done set to true.
+     *
+     * @return the keys, in submission order
+     * @throws IOException if the store can't be accessed
+     */
+    List<String> queued() throws IOException;
+
+    /**
+     * Acquires the lease of the first queued key that is not leased, or whose lease expired.
+     *
+     * @param owner the identifier of the node that requests the lease
+     * @param duration the duration of the lease
+     * @return the lease, or an empty optional if all the queued keys are leased
+     * @throws IOException if the store can't be accessed
+     */
+    default Optional<Lease> claim(String owner, Duration duration) throws IOException {
+        for (String key : queued()) {
+            final Optional<Lease> lease = acquire(key, owner, duration);
+            if (lease.isPresent()) {
+                return lease;
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,403 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A streaming parser of the output of <code>rclone lsjson</code>.
+ * <br>It only extracts the path, the size and the modification time of the entries, and works at the byte level:
+ * paths are passed as UTF-8 bytes in a reused buffer, so parsing does not allocate memory per entry.
+ */
+class LsJsonParser {
+    /** A consumer of the parsed entries. */
+    @FunctionalInterface
+    interface EntryConsumer {
+        /**
+         * Accepts an entry.
+         *
+         * @param path a buffer that contains the UTF-8 path of the entry. It is only valid during the call.
+         * @param length the length of the path in the buffer
+         * @param size the size of the entry in bytes, -1 if unknown
+         * @param modTime the modification time of the entry in milliseconds since the epoch
+         * @throws IOException if an I/O error occurs
+         */
+        void accept(byte[] path, int length, long size, long modTime) throws IOException;
+    }
+
+    private static final byte[] PATH = "Path".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SIZE = "Size".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MOD_TIME = "ModTime".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IS_DIR = "IsDir".getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[65536];
+    private int position;
+    private int limit;
+    private byte[] key = new byte[16];
+    private int keyLength;
+    private byte[] path = new byte[256];
+    private int pathLength;
+    private byte[] text = new byte[64];
+    private int textLength;
+
+    /**
+     * Creates a parser.
+     *
+     * @param in the stream to parse
+     */
+    LsJsonParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Parses the stream and passes the files it contains to a consumer. Directories are ignored.
+     *
+     * @param consumer the consumer of the entries
+     * @return the number of files
+     * @throws IOException if an I/O error occurs or if the stream is not a valid lsjson output
+     */
+    long parse(EntryConsumer consumer) throws IOException {
+        long count = 0;
+        if (skipWhitespaces() < 0) {
+            // Empty output
+            return 0;
+        }
+        expect('[');
+        while (true) {
+            final int c = skipWhitespaces();
+            if (c == ']') {
+                position++;
+                return count;
+            } else if (c == ',') {
+                position++;
+            } else if (c == '{') {
+                position++;
+                if (parseObject(consumer)) {
+                    count++;
+                }
+            } else {
+                throw error(c);
+            }
+        }
+    }
+
+    private boolean parseObject(EntryConsumer consumer) throws IOException {
+        long size = -1;
+        long modTime = 0;
+        boolean dir = false;
+        pathLength = -1;
+        while (true) {
+            final int c = skipWhitespaces();
+            if (c == '}') {
+                position++;
+                break;
+            } else if (c == ',') {
+                position++;
+            } else if (c == '"') {
+                position++;
+                keyLength = readString(true);
+                expect(':');
+                if (isKey(PATH)) {
+                    expect('"');
+                    pathLength = readString(false);
+                } else if (isKey(SIZE)) {
+                    size = readLong();
+                } else if (isKey(MOD_TIME)) {
+                    expect('"');
+                    textLength = readText();
+                    modTime = parseTime();
+                } else if (isKey(IS_DIR)) {
+                    dir = skipWhitespaces() == 't';
+                    skipValue();
+                } else {
+                    skipValue();
+                }
+            } else {
+                throw error(c);
+            }
+        }
+        if (pathLength < 0) {
+            throw new IOException("Entry without path");
+        }
+        if (dir) {
+            return false;
+        }
+        consumer.accept(path, pathLength, size, modTime);
+        return true;
+    }
+
+    private boolean isKey(byte[] expected) {
+        if (keyLength != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (key[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a string, whose opening quote was already read, in the key or the path buffer.
+     *
+     * @param inKey true to read the string in the key buffer, false to read it in the path buffer
+     * @return the length of the decoded string
+     */
+    private int readString(boolean inKey) throws IOException {
+        int length = 0;
+        while (true) {
+            final int c = read();
+            if (c == '"') {
+                return length;
+            } else if (c == '\\') {
+                final int escaped = read();
+                if (escaped == 'u') {
+                    // Encodes the code point in UTF-8
+                    for (byte b : new String(Character.toChars(readUnicodeEscape())).getBytes(StandardCharsets.UTF_8)) {
+                        length = append(inKey, length, b);
+                    }
+                } else {
+                    length = append(inKey, length, unescape(escaped));
+                }
+            } else if (c < 0) {
+                throw new IOException("Unterminated string");
+            } else {
+                length = append(inKey, length, c);
+            }
+        }
+    }
+
+    private int append(boolean inKey, int length, int b) {
+        if (inKey) {
+            if (length == key.length) {
+                key = grow(key);
+            }
+            key[length] = (byte) b;
+        } else {
+            if (length == path.length) {
+                path = grow(path);
+            }
+            path[length] = (byte) b;
+        }
+        return length + 1;
+    }
+
+    private int readUnicodeEscape() throws IOException {
+        final int high = readHex();
+        if (Character.isHighSurrogate((char) high)) {
+            if (read() != '\\' || read() != 'u') {
+                throw new IOException("Invalid surrogate pair");
+            }
+            return Character.toCodePoint((char) high, (char) readHex());
+        }
+        return high;
+    }
+
+    private int readHex() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw new IOException("Invalid unicode escape");
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private static int unescape(int c) throws IOException {
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            default: throw new IOException("Invalid escape sequence \\" + (char) c);
+        }
+    }
+
+    /**
+     * Reads a string without escape sequences (a time) in the text buffer.
+     */
+    private int readText() throws IOException {
+        int length = 0;
+        for (int c = read(); c != '"'; c = read()) {
+            if (c < 0 || c == '\\') {
+                throw new IOException("Invalid time");
+            }
+            if (length == text.length) {
+                text = grow(text);
+            }
+            text[length++] = (byte) c;
+        }
+        return length;
+    }
+
+    /**
+     * Parses the RFC 3339 time of the text buffer (e.g. 2017-05-31T16:15:57.034468261+01:00).
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    private long parseTime() throws IOException {
+        if (textLength < 20 || text[4] != '-' || text[7] != '-' || text[10] != 'T' || text[13] != ':' || text[16] != ':') {
+            throw new IOException("Invalid time " + new String(text, 0, textLength));
+        }
+        final int month = digits(5, 2);
+        final int day = digits(8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new IOException("Invalid time " + new String(text, 0, textLength));
+        }
+        final long days = TransferTracker.daysFromCivil(digits(0, 4), month, day);
+        long seconds = days * 86400 + digits(11, 2) * 3600L + digits(14, 2) * 60L + digits(17, 2);
+        int index = 19;
+        int millis = 0;
+        if (text[index] == '.') {
+            index++;
+            int scale = 100;
+            while (index < textLength && text[index] >= '0' && text[index] <= '9') {
+                millis += (text[index] - '0') * scale;
+                scale /= 10;
+                index++;
+            }
+        }
+        if (index < textLength && text[index] != 'Z') {
+            if (index + 6 != textLength || text[index + 3] != ':') {
+                throw new IOException("Invalid time zone in " + new String(text, 0, textLength));
+            }
+            final int offset = digits(index + 1, 2) * 3600 + digits(index + 4, 2) * 60;
+            seconds -= text[index] == '-' ? -offset : offset;
+        }
+        return seconds * 1000 + millis;
+    }
+
+    private int digits(int from, int count) throws IOException {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            final int digit = text[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Invalid time " + new String(text, 0, textLength));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        int c = skipWhitespaces();
+        final boolean negative = c == '-';
+        if (negative) {
+            position++;
+            c = peek();
+        }
+        if (c < '0' || c > '9') {
+            throw error(c);
+        }
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            position++;
+            c = peek();
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips a value of any type (string, number, literal, object or array).
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        while (true) {
+            final int c = skipWhitespaces();
+            if (c < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            position++;
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            } else if (c != ',' && c != ':') {
+                // Number or literal
+                for (int next = peek(); next >= 0 && ",}] \t\r\n".indexOf(next) < 0; next = peek()) {
+                    position++;
+                }
+            }
+            if (depth == 0 && (c != ',' && c != ':')) {
+                return;
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        for (int c = read(); c != '"'; c = read()) {
+            if (c < 0) {
+                throw new IOException("Unterminated string");
+            } else if (c == '\\') {
+                read();
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        final int c = skipWhitespaces();
+        if (c != expected) {
+            throw error(c);
+        }
+        position++;
+    }
+
+    private IOException error(int c) {
+        return new IOException(c < 0 ? "Unexpected end of stream" : "Unexpected character '" + (char) c + "'");
+    }
+
+    /**
+     * Skips the whitespaces and returns the next byte without consuming it.
+     *
+     * @return the next byte, or -1 if the end of the stream is reached
+     */
+    private int skipWhitespaces() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            position++;
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        final int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static byte[] grow(byte[] array) {
+        final byte[] bigger = new byte[array.length * 2];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+}
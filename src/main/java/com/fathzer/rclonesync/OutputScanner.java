@@ -0,0 +1,151 @@
+package com.fathzer.rclonesync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A line reader for the rclone output that works at the byte level.
+ * <br>Lines that end with one of the ignored suffixes are skipped without being decoded, which avoids
+ * creating a String for each of the numerous "checking" or "transferring" lines. Other lines are decoded as UTF-8.
+ * <br>Like {@link java.io.BufferedReader#readLine()}, lines can be terminated by "\n", "\r" or "\r\n".
+ */
+class OutputScanner implements Closeable {
+    private static final int INITIAL_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[][] ignoredSuffixes;
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    // The unread bytes are buffer[position, limit[
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+    private boolean skipLineFeed;
+
+    /**
+     * Creates a new scanner.
+     *
+     * @param in the stream to read
+     * @param ignoredSuffixes the suffixes of the lines to skip. They should be ASCII strings.
+     */
+    OutputScanner(InputStream in, List<String> ignoredSuffixes) {
+        this.in = in;
+        this.ignoredSuffixes = ignoredSuffixes.stream().map(s -> s.getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new);
+    }
+
+    /**
+     * Reads the next line that is not ignored.
+     *
+     * @return the line, without its terminator, or null if the end of the stream is reached
+     * @throws IOException if an I/O error occurs
+     */
+    String nextLine() throws IOException {
+        while (true) {
+            if (skipLineFeed) {
+                // The previous line ended with '\r', it may be followed by '\n'
+                if (position == limit && !fill()) {
+                    return null;
+                }
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                }
+            }
+            int scanned = 0;
+            int eol;
+            while ((eol = findEndOfLine(position + scanned)) < 0) {
+                scanned = limit - position;
+                if (!fill()) {
+                    break;
+                }
+            }
+            if (eol < 0) {
+                if (position == limit) {
+                    return null;
+                }
+                // Last line without terminator
+                eol = limit;
+            }
+            final int start = position;
+            if (eol < limit) {
+                skipLineFeed = buffer[eol] == '\r';
+                position = eol + 1;
+            } else {
+                position = eol;
+            }
+            if (!isIgnored(start, eol)) {
+                return new String(buffer, start, eol - start, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private int findEndOfLine(int from) {
+        for (int i = from; i < limit; i++) {
+            final byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads more bytes from the stream, compacting or growing the buffer when needed.
+     *
+     * @return false if the end of the stream is reached
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean fill() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+        if (limit == buffer.length) {
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            } else {
+                // The current line is longer than the buffer
+                final byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, limit);
+                buffer = bigger;
+            }
+        }
+        final int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private boolean isIgnored(int start, int end) {
+        for (byte[] suffix : ignoredSuffixes) {
+            if (endsWith(start, end, suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean endsWith(int start, int end, byte[] suffix) {
+        final int offset = end - suffix.length;
+        if (offset < start) {
+            return false;
+        }
+        for (int i = suffix.length - 1; i >= 0; i--) {
+            if (buffer[offset + i] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -1,5 +1,7 @@
 package com.fathzer.rclonesync;
 
+import java.util.Collection;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -14,6 +16,8 @@ import java.util.regex.Pattern;
  * @param eta Estimated time remaining for the operation to complete
  * @param processedChecks Number of files that have been checked
  * @param totalChecks Total number of files to check
+ * @param bandwidthLimit The bandwidth limit in bytes per second applied to the synchronization (0 if there's no limit)
+ * @see RcloneSync#withBandwidthBudget(BandwidthBudget, int)
  */
 public record Progress(
     long processedBytes,
@@ -21,11 +25,145 @@ public record Progress(
     String bytesThroughput,
     String eta,
     int processedChecks,
-    int totalChecks
+    int totalChecks,
+    long bandwidthLimit
 ) {
     private static final Pattern pattern = Pattern.compile(
         "^([\\d]*\\.?[\\d]+)\\s*([KMGT])?i?B$"
     );
+    private static final Pattern etaPattern = Pattern.compile("(\\d+)([dhms])(?!s)");
+    private static final String UNKNOWN = "-";
+    private static final String PER_SECOND = "/s";
+    private static final String[] BINARY_UNITS = {"B", "KiB", "MiB", "GiB", "TiB"};
+
+    /**
+     * Creates a progress without bandwidth limit.
+     *
+     * @param processedBytes The number of bytes that have been processed so far
+     * @param totalBytes The total number of bytes to process (may be 0 if unknown)
+     * @param bytesThroughput The current transfer throughput (e.g., "1.2 MB/s")
+     * @param eta Estimated time remaining for the operation to complete
+     * @param processedChecks Number of files that have been checked
+     * @param totalChecks Total number of files to check
+     */
+    public Progress(long processedBytes, long totalBytes, String bytesThroughput, String eta, int processedChecks, int totalChecks) {
+        this(processedBytes, totalBytes, bytesThroughput, eta, processedChecks, totalChecks, 0);
+    }
+
+    /**
+     * Gets a copy of this progress with another bandwidth limit.
+     *
+     * @param bandwidthLimit the bandwidth limit in bytes per second (0 if there's no limit)
+     * @return a new progress
+     */
+    Progress withBandwidthLimit(long bandwidthLimit) {
+        return new Progress(processedBytes, totalBytes, bytesThroughput, eta, processedChecks, totalChecks, bandwidthLimit);
+    }
+
+    /**
+     * Aggregates the progress of several concurrent operations.
+     * <br>Bytes and checks are summed, throughput is the sum of the throughputs and eta is the longest eta.
+     * <br>The bandwidth limit is the sum of the limits, or 0 if one of the operations is not limited.
+     *
+     * @param progresses the progresses to aggregate
+     * @return the aggregated progress
+     */
+    static Progress aggregate(Collection<Progress> progresses) {
+        long processedBytes = 0;
+        long totalBytes = 0;
+        long throughput = 0;
+        long eta = -1;
+        int processedChecks = 0;
+        int totalChecks = 0;
+        long bandwidthLimit = 0;
+        boolean unlimited = false;
+        for (Progress progress : progresses) {
+            processedBytes += progress.processedBytes();
+            totalBytes += progress.totalBytes();
+            throughput += decodeThroughput(progress.bytesThroughput());
+            eta = Math.max(eta, decodeEta(progress.eta()));
+            processedChecks += progress.processedChecks();
+            totalChecks += progress.totalChecks();
+            bandwidthLimit += progress.bandwidthLimit();
+            unlimited = unlimited || progress.bandwidthLimit() == 0;
+        }
+        return new Progress(processedBytes, totalBytes, encode(throughput) + PER_SECOND, eta < 0 ? UNKNOWN : encodeEta(eta),
+                processedChecks, totalChecks, unlimited ? 0 : bandwidthLimit);
+    }
+
+    private static long decodeThroughput(String throughput) {
+        if (!throughput.endsWith(PER_SECOND)) {
+            return 0;
+        }
+        try {
+            return decode(throughput.substring(0, throughput.length() - PER_SECOND.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Converts a byte count to a human-readable string using binary units, like rclone does.
+     *
+     * @param bytes the number of bytes
+     * @return a string (e.g., "1.500 KiB")
+     */
+    static String encode(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < BINARY_UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.3f %s", value, BINARY_UNITS[unit]);
+    }
+
+    /**
+     * Converts an rclone eta (e.g., "1h2m3s") to a number of seconds.
+     *
+     * @param eta the eta
+     * @return the number of seconds, or -1 if the eta is unknown
+     */
+    static long decodeEta(String eta) {
+        final Matcher matcher = etaPattern.matcher(eta);
+        long seconds = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            final long value = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2).charAt(0)) {
+                case 'd':
+                    seconds += value * 86400;
+                    break;
+                case 'h':
+                    seconds += value * 3600;
+                    break;
+                case 'm':
+                    seconds += value * 60;
+                    break;
+                default:
+                    seconds += value;
+            }
+        }
+        return found ? seconds : -1;
+    }
+
+    private static String encodeEta(long seconds) {
+        final StringBuilder result = new StringBuilder();
+        if (seconds >= 86400) {
+            result.append(seconds / 86400).append('d');
+        }
+        if (seconds >= 3600) {
+            result.append((seconds % 86400) / 3600).append('h');
+        }
+        if (seconds >= 60) {
+            result.append((seconds % 3600) / 60).append('m');
+        }
+        return result.append(seconds % 60).append('s').toString();
+    }
     
     /**
      * Parses rclone's progress output strings into a Progress object.
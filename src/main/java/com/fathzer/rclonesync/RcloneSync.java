@@ -1,16 +1,24 @@
 package com.fathzer.rclonesync;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
+import java.util.logging.Logger;
 
 /**
  * A class that provides a fluent API for running rclone sync operations with progress tracking.
@@ -20,13 +28,78 @@ import java.util.logging.LogManager;
 public class RcloneSync {
     private static final String TRANSFERRED_PREFIX = "Transferred:";
     private static final String CHECKS_PREFIX = "Checks:";
+    private static final String ERRORS_PREFIX = "Errors:";
+    private static final String CHECKING_SUFFIX = ": checking";
+    private static final String TRANSFERRING_SUFFIX = ": transferring";
+    private static final String DELETED_SUFFIX = ": Deleted";
+    private static final String COPIED_SUFFIX = ": Copied (new)";
+    private static final String REPLACED_SUFFIX = ": Copied (replaced existing)";
+    /** The separator between the log level and the message in rclone log lines */
+    private static final String LEVEL_SEPARATOR = " : ";
+    /** The marker of the error lines, followed by the path of the file and the error message */
+    private static final String ERROR_MARKER = "ERROR : ";
+    /** The separator between the path and the message in rclone log lines */
+    private static final String PATH_SEPARATOR = ": ";
+    /**
+     * The beginnings of the rclone error messages that follow the path of a file or a directory.
+     * <br>Other errors (e.g. "Attempt 1/3 failed with 2 errors", or the errors of a remote like
+     * "S3 bucket x: error reading source root directory") don't concern a file.
+     */
+    private static final List<String> FILE_ERRORS = List.of("Failed to copy", "Failed to move", "Couldn't move",
+        "Couldn't delete", "Failed to delete", "Failed to set modification time", "Failed to calculate src hash",
+        "Failed to calculate dst hash", "corrupted on transfer", "error reading source directory",
+        "error reading destination directory", "Failed to make directory", "Failed to mkdir", "Failed to rmdir",
+        "Failed to remove directory", "Failed to list");
+    private static final String NOTHING_TO_TRANSFER_SUFFIX = ": There was nothing to transfer";
+    /** The suffixes of the lines that are skipped without being decoded */
+    private static final List<String> IGNORED_SUFFIXES = List.of(CHECKING_SUFFIX, TRANSFERRING_SUFFIX, NOTHING_TO_TRANSFER_SUFFIX);
+
+    /**
+     * The order in which rclone transfers the files.
+     * @see RcloneSync#withTimeBudget(Duration, Order)
+     */
+    public enum Order {
+        /** The most recently modified files first */
+        NEWEST_FIRST("modtime,descending"),
+        /** The least recently modified files first */
+        OLDEST_FIRST("modtime,ascending"),
+        /** The smallest files first */
+        SMALLEST_FIRST("size,ascending"),
+        /** The largest files first */
+        LARGEST_FIRST("size,descending");
+
+        private final String rcloneValue;
+
+        Order(String rcloneValue) {
+            this.rcloneValue = rcloneValue;
+        }
+
+        String rcloneValue() {
+            return rcloneValue;
+        }
+    }
 
     private final String source;
     private final String destination;
+    private List<String> rcloneCommand = List.of("rclone");
     private boolean checksum = false;
     private String excludesFile = null;
     private List<String> excludes = List.of();
     private String configFile = null;
+    private String filesFrom = null;
+    private boolean filesFromRaw;
+    private boolean deleteExcluded = false;
+    private ResourcePolicy resourcePolicy = null;
+    private BandwidthBudget bandwidthBudget = null;
+    private Path checkpointJournal = null;
+    private Duration timeBudget = null;
+    private Order order = null;
+    private String operation = "sync";
+    private List<String> arguments = List.of();
+    private DemandPublisher<FileEvent> fileEventSink = null;
+    /** The failures of the files this synchronization retries, they are cleared as the files are completed */
+    private List<FileFailure> retriedFailures = List.of();
+    private int bandwidthWeight = 1;
     private Consumer<Progress> eventConsumer = event -> {};
     private Consumer<IOException> exceptionConsumer = exception ->
         LogManager.getLogManager().getLogger(this.getClass().getName()).log(Level.SEVERE, "Error reading process output", exception);
@@ -46,6 +119,23 @@ public class RcloneSync {
         this.destination = destination;
     }
 
+    /**
+     * Sets the command used to launch rclone.
+     * <br>It is useful when rclone is not in the system PATH, or to replace rclone by another program (for instance in tests).
+     *
+     * @param command the command and its first arguments (default: "rclone")
+     * @return this instance for method chaining
+     * @throws NullPointerException if command or one of its elements is null
+     * @throws IllegalArgumentException if command is empty
+     */
+    public RcloneSync withRcloneCommand(String... command) {
+        if (command.length == 0) {
+            throw new IllegalArgumentException("command must not be empty");
+        }
+        this.rcloneCommand = List.of(command);
+        return this;
+    }
+
     /**
      * Enables or disables checksum verification during the sync operation.
      * When enabled, rclone will compare file checksums instead of just file sizes and modification times.
@@ -85,6 +175,88 @@ public class RcloneSync {
         return this;
     }
 
+    /**
+     * Restricts the sync operation to the files listed in a file.
+     * <br>Each line of the file is a path relative to the source root. Files that are not listed are ignored,
+     * both in the source and in the destination (they are not deleted from the destination).
+     *
+     * @param filesFrom path to the file containing the list of files to sync (default: null, which means all files are synced)
+     * @return this instance for method chaining
+     */
+    public RcloneSync withFilesFrom(String filesFrom) {
+        this.filesFrom = filesFrom;
+        this.filesFromRaw = false;
+        return this;
+    }
+
+    /**
+     * Restricts the sync operation to the files listed in a generated file.
+     * <br>Unlike {@link #withFilesFrom(String)}, each line is taken as is (<code>--files-from-raw</code>): lines
+     * starting with <code>#</code> or <code>;</code> are not comments, and spaces are not trimmed. This is the format
+     * of the lists generated by rclone, which contain the actual file names.
+     *
+     * @param filesFrom path to the file containing the list of files to sync (default: null, which means all files are synced)
+     * @return this instance for method chaining
+     */
+    public RcloneSync withFilesFromRaw(String filesFrom) {
+        this.filesFrom = filesFrom;
+        this.filesFromRaw = true;
+        return this;
+    }
+
+    /**
+     * Sets whether files excluded from the sync are deleted from the destination.
+     *
+     * @param deleteExcluded true to pass <code>--delete-excluded</code> to rclone (default: false)
+     * @return this instance for method chaining
+     */
+    RcloneSync withDeleteExcluded(boolean deleteExcluded) {
+        this.deleteExcluded = deleteExcluded;
+        return this;
+    }
+
+    /**
+     * Sets the rclone operation.
+     *
+     * @param operation the rclone command (default: "sync")
+     * @return this instance for method chaining
+     */
+    RcloneSync withOperation(String operation) {
+        this.operation = operation;
+        return this;
+    }
+
+    /**
+     * Sets additional rclone arguments.
+     *
+     * @param arguments arguments added at the end of the command line (default: none)
+     * @return this instance for method chaining
+     */
+    RcloneSync withArguments(String... arguments) {
+        this.arguments = List.of(arguments);
+        return this;
+    }
+
+    /**
+     * Sets the publisher where the file events of the launched synchronizations are published.
+     *
+     * @param fileEventSink a publisher shared with other synchronizations (null, the default, to use a publisher per synchronization)
+     * @return this instance for method chaining
+     */
+    RcloneSync withFileEventSink(DemandPublisher<FileEvent> fileEventSink) {
+        this.fileEventSink = fileEventSink;
+        return this;
+    }
+
+    /**
+     * Checks whether some exclusion patterns are set.
+     *
+     * @return true if an excludes file or some exclusion patterns are set
+     */
+    boolean hasExclusions() {
+        return excludesFile != null || !excludes.isEmpty();
+    }
+
     /**
      * Sets a custom rclone configuration file to use for the sync operation.
      *
@@ -96,6 +268,102 @@ public class RcloneSync {
         return this;
     }
 
+    /**
+     * Sets the resource limits (CPU nice, I/O scheduling class, CPU affinity, cgroup caps) applied to the rclone process.
+     * <br>The settings that took effect are read back from the launched process (which makes {@link #run()} wait for the
+     * wrapping tools to launch rclone), and are available through {@link Synchronization#appliedResourceSettings()}.
+     *
+     * @param resourcePolicy the policy to apply (null by default which means the process is launched without any limit)
+     * @return this instance for method chaining
+     */
+    public RcloneSync withResourcePolicy(ResourcePolicy resourcePolicy) {
+        this.resourcePolicy = resourcePolicy;
+        return this;
+    }
+
+    /**
+     * Sets the bandwidth budget this synchronization shares with other ones.
+     * <br>While the synchronization runs, it gets a share of the budget proportional to its weight.
+     * The share is applied through rclone's remote control API, which is enabled on a free local port with a random
+     * user and password (passed in the environment of rclone). {@link #run()} waits for the API to answer, and launches rclone again on another port if it
+     * exits before (which happens if the port was taken in the meantime).
+     * The current limit is reported by {@link Progress#bandwidthLimit()}.
+     *
+     * @param budget the budget (null by default, which means the bandwidth is not limited)
+     * @param weight the weight of this synchronization
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if weight is not positive
+     */
+    public RcloneSync withBandwidthBudget(BandwidthBudget budget, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        this.bandwidthBudget = budget;
+        this.bandwidthWeight = weight;
+        return this;
+    }
+
+    /**
+     * Sets a checkpoint journal that makes an interrupted synchronization resumable.
+     * <br>The files copied, replaced or deleted by the synchronization are appended to the journal as rclone reports them.
+     * If the journal already exists when {@link #run()} is called, the previous run was interrupted: the source is listed
+     * (or the {@link #withFilesFrom(String) files list} is read) and the files recorded in the journal are excluded from
+     * the synchronization. The source is listed by {@link #run()}, which blocks until the listing ends.
+     * <br>rclone doesn't report the files it finds unchanged, so they are not recorded: a resumed synchronization checks
+     * them again, but doesn't transfer them.
+     * <br>The journal is deleted when a synchronization ends successfully.
+     * Note that a resumed synchronization does not delete the destination files that are missing in the source,
+     * the next full synchronization does.
+     *
+     * @param journal path to the journal file (null by default, which means the synchronization can't be resumed)
+     * @return this instance for method chaining
+     */
+    public RcloneSync withCheckpointJournal(Path journal) {
+        this.checkpointJournal = journal;
+        return this;
+    }
+
+    /**
+     * Checks whether the checksum verification is enabled.
+     *
+     * @return the value set by {@link #withCheckSum(boolean)}
+     */
+    boolean checkSum() {
+        return checksum;
+    }
+
+    /**
+     * Gets the checkpoint journal.
+     *
+     * @return the journal set by {@link #withCheckpointJournal(Path)}, null if there's none
+     */
+    Path checkpointJournal() {
+        return checkpointJournal;
+    }
+
+    /**
+     * Sets the maximum duration of the synchronization and the order in which files are transferred.
+     * <br>When the duration is reached, rclone stops starting new transfers, lets the running ones finish and exits
+     * (see {@link SynchronizationResult#isTimeBudgetExhausted()}). The files that were not transferred are reported by
+     * {@link SynchronizationResult#deferredFiles()} and {@link SynchronizationResult#deferredBytes()}.
+     * <br>When an order is set, rclone checks all the files before starting to transfer them, so that the most valuable
+     * files are really transferred first.
+     * <br>Combined with {@link #withCheckpointJournal(Path)}, the next run only syncs the files that were deferred.
+     *
+     * @param maxDuration the maximum duration (null, the default, for no limit), rounded up to the millisecond
+     * @param order the transfer order (null, the default, for rclone's order)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if maxDuration is zero or negative
+     */
+    public RcloneSync withTimeBudget(Duration maxDuration, Order order) {
+        if (maxDuration != null && (maxDuration.isZero() || maxDuration.isNegative())) {
+            throw new IllegalArgumentException("maxDuration must be positive");
+        }
+        this.timeBudget = maxDuration;
+        this.order = order;
+        return this;
+    }
+
     /**
      * Sets a consumer to receive progress updates during the sync operation.
      * The consumer will be called periodically with progress information.
@@ -131,23 +399,264 @@ public class RcloneSync {
     /**
      * Starts the rclone sync operation asynchronously.
      * A new daemon thread is created to read the process output.
+     * <br>If an interrupted synchronization is resumed from its {@link #withCheckpointJournal(Path) checkpoint journal},
+     * this method blocks while the source is listed.
      *
      * @return a {@link Synchronization} object that can be used to monitor and control the operation
      * @throws IOException if an I/O error occurs when starting the process
      * @throws SecurityException if a security manager exists and its checkExec method doesn't allow creation of the subprocess
      */
     public Synchronization run() throws IOException {
+        final Set<ResourcePolicy.Setting> appliedSettings = EnumSet.noneOf(ResourcePolicy.Setting.class);
         final List<String> cmd = buildCommand();
-        final Process process = buildProcess(cmd);
-        final Synchronization synchronization = new Synchronization(process, new SynchronizationResult());
+        final SynchronizationResult result = new SynchronizationResult();
+        retriedFailures.forEach(result::addFailure);
+        final List<Path> temporaryFiles = new ArrayList<>();
+        final CheckpointJournal journal;
+        try {
+            journal = checkpointJournal == null ? null : openJournal(cmd, result, temporaryFiles);
+        } catch (IOException | RuntimeException e) {
+            deleteAll(temporaryFiles);
+            throw e;
+        }
+        final RemoteControl remoteControl;
+        final BandwidthBudget.Share share;
+        if (bandwidthBudget != null) {
+            remoteControl = new RemoteControl();
+            share = bandwidthBudget.register(bandwidthWeight, limit -> {
+                remoteControl.setBandwidthLimit(limit);
+                result.setBandwidthLimit(limit);
+            });
+            result.setBandwidthLimit(share.limit());
+            cmd.addAll(List.of(remoteControl.options()));
+            cmd.add("--bwlimit");
+            cmd.add(RemoteControl.toRate(share.limit()));
+        } else {
+            remoteControl = null;
+            share = null;
+        }
+        final Process process;
+        try {
+            process = start(cmd, remoteControl, appliedSettings);
+        } catch (IOException | RuntimeException e) {
+            if (share != null) {
+                bandwidthBudget.unregister(share);
+            }
+            if (journal != null) {
+                closeJournal(journal, false);
+            }
+            deleteAll(temporaryFiles);
+            throw e;
+        }
+        final Synchronization synchronization = new Synchronization(process, result, fileEventSink);
+        synchronization.setAppliedResourceSettings(resourcePolicy == null ? appliedSettings : resourcePolicy.checkApplied(process, cmd, appliedSettings));
+        if (share != null) {
+            synchronization.addCompletionAction(() -> bandwidthBudget.unregister(share));
+        }
+        if (journal != null) {
+            synchronization.setJournal(journal);
+            synchronization.addCompletionAction(() -> {
+                closeJournal(journal, hasSucceeded(process) && !synchronization.isCancelled());
+                deleteAll(temporaryFiles);
+            });
+        }
 
         final Thread thread = new Thread(() -> readProcessOutput(synchronization));
         thread.setDaemon(true);
+        synchronization.setOutputReader(thread);
         thread.start();
 
         return synchronization;
     }
 
+    /**
+     * Launches the rclone process.
+     * <br>If the remote control API is enabled, the process is launched again on another port when it can't listen on
+     * its port (which may have been taken since it was found free).
+     *
+     * @param cmd the command, it is updated with the port of the launched process
+     * @param remoteControl the remote control client, null if the API is not enabled
+     * @param appliedSettings the resource settings applied by the resource policy, filled by this method
+     * @return the process
+     * @throws IOException if the process can't be launched
+     */
+    private Process start(List<String> cmd, RemoteControl remoteControl, Set<ResourcePolicy.Setting> appliedSettings) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            final List<String> command = resourcePolicy == null ? cmd : resourcePolicy.wrap(cmd, appliedSettings);
+            final Process process = buildProcess(command, remoteControl == null ? Map.of() : remoteControl.environment());
+            if (remoteControl == null || attempt == RemoteControl.MAX_ATTEMPTS || remoteControl.awaitStart(process)) {
+                return process;
+            }
+            Logger.getLogger(getClass().getName()).fine("rclone failed to start its remote control, retrying on another port");
+            remoteControl.changePort();
+            setOption(cmd, "--rc-addr", remoteControl.address());
+            appliedSettings.clear();
+        }
+    }
+
+    /**
+     * Retries the files that failed during a synchronization.
+     * <br>The failed files are grouped by error category, and each group is synchronized again through
+     * <code>--files-from-raw</code> after the delay of its category. A file succeeds only when rclone reports it as
+     * copied, replaced or deleted. The failures that concern a directory (see {@link FileFailure#isDirectory()}) can't
+     * be retried through a files list, they are definitive. The files that fail again are retried with a doubled
+     * delay, until they succeed or the maximum number of attempts is reached.
+     * <br>The retries run with the settings of this instance, except the checkpoint journal and the time budget.
+     * The result of the returned synchronization contains the files that still fail once all the attempts are made,
+     * and its exit code is 0 if there is no such file.
+     *
+     * @param result the result of the synchronization whose failed files should be retried
+     * @param policy the retry policy
+     * @return a {@link Synchronization} object that can be used to monitor and control the retries
+     * @throws NullPointerException if an argument is null
+     */
+    public Synchronization retryFailed(SynchronizationResult result, RetryPolicy policy) {
+        if (result == null || policy == null) {
+            throw new NullPointerException("result and policy must not be null");
+        }
+        final RetrySynchronization synchronization = new RetrySynchronization(policy, this::retrySync, eventConsumer, exceptionConsumer);
+        synchronization.retry(result.failures());
+        return synchronization;
+    }
+
+    /**
+     * Retries the files that failed during a synchronization with the default {@link RetryPolicy}.
+     *
+     * @param result the result of the synchronization whose failed files should be retried
+     * @return a {@link Synchronization} object that can be used to monitor and control the retries
+     * @throws NullPointerException if result is null
+     * @see #retryFailed(SynchronizationResult, RetryPolicy)
+     */
+    public Synchronization retryFailed(SynchronizationResult result) {
+        return retryFailed(result, new RetryPolicy());
+    }
+
+    /**
+     * Creates a synchronization with the settings of this one, restricted to a list of files.
+     * <br>The result of the synchronization starts with the failures of the files, and a failure is removed when
+     * rclone reports that its file is copied, replaced or deleted.
+     *
+     * @param filesFrom the list of files, in the format of <code>--files-from-raw</code>
+     * @param failures the failures of the listed files
+     * @return a new RcloneSync
+     */
+    private RcloneSync retrySync(Path filesFrom, List<FileFailure> failures) {
+        final RcloneSync sync = newSync(source, destination);
+        sync.rcloneCommand = rcloneCommand;
+        sync.checksum = checksum;
+        sync.excludesFile = excludesFile;
+        sync.excludes = excludes;
+        sync.configFile = configFile;
+        sync.resourcePolicy = resourcePolicy;
+        sync.bandwidthBudget = bandwidthBudget;
+        sync.bandwidthWeight = bandwidthWeight;
+        sync.operation = operation;
+        sync.arguments = arguments;
+        sync.exceptionConsumer = exceptionConsumer;
+        sync.filesFrom = filesFrom.toString();
+        sync.filesFromRaw = true;
+        sync.retriedFailures = failures;
+        return sync;
+    }
+
+    /**
+     * Creates a new synchronization.
+     *
+     * @param source the source
+     * @param destination the destination
+     * @return a new {@link RcloneSync} instance
+     */
+    RcloneSync newSync(String source, String destination) {
+        return new RcloneSync(source, destination);
+    }
+
+    /**
+     * Opens the checkpoint journal.
+     * <br>If the journal already exists, the command is restricted to the files that are not recorded in the journal.
+     *
+     * @param cmd the command, which is modified if the synchronization is resumed
+     * @param result the result where the number of skipped files is set
+     * @param temporaryFiles a list where the temporary files to delete at the end of the synchronization are added
+     * @return the opened journal
+     * @throws IOException if an I/O error occurs
+     */
+    private CheckpointJournal openJournal(List<String> cmd, SynchronizationResult result, List<Path> temporaryFiles) throws IOException {
+        if (Files.exists(checkpointJournal)) {
+            final Set<String> completed = CheckpointJournal.read(checkpointJournal);
+            final Path plan;
+            if (filesFrom == null) {
+                plan = Files.createTempFile("rclone-plan", ".txt");
+                temporaryFiles.add(plan);
+                listSource(plan);
+            } else {
+                plan = Paths.get(filesFrom);
+            }
+            final Path remaining = Files.createTempFile("rclone-remaining", ".txt");
+            temporaryFiles.add(remaining);
+            result.setSkipped(CheckpointJournal.writeRemaining(plan, filesFrom == null || filesFromRaw, completed, remaining));
+            // The remaining list replaces the files list, if any
+            removeOption(cmd, "--files-from");
+            removeOption(cmd, "--files-from-raw");
+            cmd.add("--files-from-raw");
+            cmd.add(remaining.toString());
+        }
+        return CheckpointJournal.open(checkpointJournal);
+    }
+
+    /**
+     * Sets the value of an option in a command, adding the option if it is missing.
+     *
+     * @param cmd the command
+     * @param option the option name
+     * @param value the option value
+     */
+    static void setOption(List<String> cmd, String option, String value) {
+        final int index = cmd.indexOf(option);
+        if (index >= 0 && index + 1 < cmd.size()) {
+            cmd.set(index + 1, value);
+        } else {
+            cmd.add(option);
+            cmd.add(value);
+        }
+    }
+
+    private static void removeOption(List<String> cmd, String option) {
+        final int index = cmd.indexOf(option);
+        if (index >= 0 && index + 1 < cmd.size()) {
+            cmd.subList(index, index + 2).clear();
+        }
+    }
+
+    private void closeJournal(CheckpointJournal journal, boolean completed) {
+        try {
+            journal.close();
+            if (completed) {
+                Files.deleteIfExists(journal.path());
+            }
+        } catch (IOException e) {
+            exceptionConsumer.accept(e);
+        }
+    }
+
+    private static boolean hasSucceeded(Process process) {
+        try {
+            return process.exitValue() == 0;
+        } catch (IllegalThreadStateException e) {
+            // The process is still running
+            return false;
+        }
+    }
+
+    private static void deleteAll(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Temporary files are deleted on a best effort basis
+            }
+        }
+    }
+
     /**
      * Creates a new process with the specified command.
      *
@@ -159,6 +668,92 @@ public class RcloneSync {
         return new ProcessBuilder(cmd).redirectErrorStream(true).start();
     }
 
+    /**
+     * Creates a new process with the specified command and additional environment variables.
+     * <br>Secrets are passed this way, as the command line of a process can be read by other users.
+     *
+     * @param cmd the command to run and its arguments
+     * @param environment the variables to add to the environment of the process
+     * @return a new Process instance, created by {@link #buildProcess(List)} if there's no variable to add
+     * @throws IOException if an I/O error occurs
+     */
+    Process buildProcess(List<String> cmd, Map<String, String> environment) throws IOException {
+        if (environment.isEmpty()) {
+            return buildProcess(cmd);
+        }
+        final ProcessBuilder builder = new ProcessBuilder(cmd).redirectErrorStream(true);
+        builder.environment().putAll(environment);
+        return builder.start();
+    }
+
+    /**
+     * Creates a new process that lists files and writes the list in a file.
+     *
+     * @param cmd the command to run and its arguments
+     * @param output the file where the standard output of the process is written
+     * @return a new Process instance
+     * @throws IOException if an I/O error occurs
+     */
+    Process buildListingProcess(List<String> cmd, Path output) throws IOException {
+        return new ProcessBuilder(cmd).redirectOutput(output.toFile()).start();
+    }
+
+    /**
+     * Lists the files of the source, taking the exclusion patterns into account.
+     * <br>The list has the format expected by {@link #withFilesFromRaw(String)}.
+     *
+     * @param output the file where the list is written
+     * @throws IOException if the listing fails
+     */
+    void listSource(Path output) throws IOException {
+        final List<String> cmd = new LinkedList<>(rcloneCommand);
+        cmd.addAll(List.of("lsf", "-R", "--files-only", "--fast-list", source));
+        addFilterAndConfigOptions(cmd);
+        final Process process = buildListingProcess(cmd, output);
+        // Errors are read before waiting for the process, so that it can't be blocked by a full error pipe
+        final String errors = new String(process.getErrorStream().readAllBytes());
+        final int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new InterruptedIOException("Interrupted while listing " + source);
+        }
+        if (exitCode != 0) {
+            throw new IOException("Unable to list " + source + " (exit code " + exitCode + "): " + errors.trim());
+        }
+    }
+
+    /**
+     * Starts a listing of a remote, taking the exclusion patterns into account.
+     *
+     * @param remote the remote to list
+     * @param errors the file where the error output of the process is written
+     * @param options the rclone command and its options (e.g. "lsjson", "-R")
+     * @return a process whose standard output is the listing
+     * @throws IOException if the process can't be started
+     */
+    Process startListing(String remote, Path errors, String... options) throws IOException {
+        final List<String> cmd = new LinkedList<>(rcloneCommand);
+        cmd.addAll(List.of(options));
+        cmd.add(remote);
+        addFilterAndConfigOptions(cmd);
+        return buildStreamingListingProcess(cmd, errors);
+    }
+
+    /**
+     * Creates a new process that lists files on its standard output.
+     *
+     * @param cmd the command to run and its arguments
+     * @param errors the file where the error output of the process is written
+     * @return a new Process instance
+     * @throws IOException if an I/O error occurs
+     */
+    Process buildStreamingListingProcess(List<String> cmd, Path errors) throws IOException {
+        return new ProcessBuilder(cmd).redirectError(errors.toFile()).start();
+    }
+
     /**
      * Builds the command line arguments for the rclone sync operation.
      * This method can be overridden by subclasses to inspect and modify the command line.
@@ -166,15 +761,41 @@ public class RcloneSync {
      * @return a list of command line arguments
      */
     protected List<String> buildCommand() {
-        final List<String> cmd = new LinkedList<>(List.of(
-            "rclone", "sync", source, destination,
+        final List<String> cmd = new LinkedList<>(rcloneCommand);
+        cmd.addAll(List.of(
+            operation, source, destination,
             "--fast-list",
             "--stats", "1s",
-            "--log-level", "INFO"
+            // Full paths in the statistics, in order to match the transfers with their "Copied" lines
+            "--stats-file-name-length", "0",
+            "--log-level", "INFO",
+            // Sub-second timestamps, in order to measure the transfer durations
+            "--log-format", "date,time,microseconds"
         ));
         if (checksum) {
             cmd.add("--checksum");
         }
+        if (filesFrom != null) {
+            cmd.add(filesFromRaw ? "--files-from-raw" : "--files-from");
+            cmd.add(filesFrom);
+        }
+        if (deleteExcluded) {
+            cmd.add("--delete-excluded");
+        }
+        if (timeBudget != null) {
+            // Truncating the budget could lead to 0s, which means no limit for rclone, it is rounded up to the millisecond
+            final String maxDuration = timeBudget.getNano() == 0 ? timeBudget.getSeconds() + "s" : timeBudget.plusNanos(999_999).toMillis() + "ms";
+            cmd.addAll(List.of("--max-duration", maxDuration, "--cutoff-mode", "soft"));
+        }
+        if (order != null) {
+            cmd.addAll(List.of("--order-by", order.rcloneValue(), "--check-first"));
+        }
+        addFilterAndConfigOptions(cmd);
+        cmd.addAll(arguments);
+        return cmd;
+    }
+
+    private void addFilterAndConfigOptions(List<String> cmd) {
         if (excludesFile != null) {
             cmd.add("--exclude-from");
             cmd.add(excludesFile);
@@ -187,42 +808,65 @@ public class RcloneSync {
             cmd.add("--config");
             cmd.add(configFile);
         }
-        return cmd;
     }
 
     private void readProcessOutput(Synchronization synchronization) {
         final Process process = synchronization.process();
-        final SynchronizationResult result = synchronization.result();
+        IOException error = null;
         try {
-            processOutput(process::getInputStream, result);
+            processOutput(process::getInputStream, synchronization);
         } catch (IOException e) {
             if (!synchronization.isCancelled()) {
                 exceptionConsumer.accept(e);
+                error = e;
             }
         }
+        synchronization.complete(error);
     }
 
     void processOutput(Supplier<InputStream> inputStreamSupplier, SynchronizationResult result) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStreamSupplier.get()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
+        processOutput(inputStreamSupplier, new Synchronization(null, result));
+    }
+
+    void processOutput(Supplier<InputStream> inputStreamSupplier, Synchronization synchronization) throws IOException {
+        try (OutputScanner reader = new OutputScanner(inputStreamSupplier.get(), IGNORED_SUFFIXES)) {
+            String line = reader.nextLine();
+            while (line != null) {
                 if (isProgressStart(line)) {
-                    final String checks = reader.readLine();
-                    if (checks.startsWith(CHECKS_PREFIX)) {
-                        final String transfered = line.substring(TRANSFERRED_PREFIX.length()).trim();
-                        final String checksLine = checks.substring(CHECKS_PREFIX.length()).trim();
-                        final Optional<Progress> oProgress = Progress.parse(transfered, checksLine);
-                        if (oProgress.isPresent()) {
-                            final Progress progress = oProgress.get();
-                            eventConsumer.accept(progress);
-                            continue;
+                    String checks = reader.nextLine();
+                    // Once an error occurred, an "Errors:" line precedes the checks
+                    final String errors = checks != null && checks.startsWith(ERRORS_PREFIX) ? checks : null;
+                    if (errors != null) {
+                        checks = reader.nextLine();
+                    }
+                    if (checks == null || !checks.startsWith(CHECKS_PREFIX)) {
+                        // Truncated progress block (or the file count line of a block), the next line may be the start of a new one
+                        onNonProgressLine(line, synchronization);
+                        if (errors != null) {
+                            onNonProgressLine(errors, synchronization);
                         }
+                        line = checks;
+                        continue;
+                    }
+                    // The bytes line starts a statistics block, the file count line that follows also starts with "Transferred:"
+                    synchronization.transferTracker().onStats();
+                    final String transfered = line.substring(TRANSFERRED_PREFIX.length()).trim();
+                    final String checksLine = checks.substring(CHECKS_PREFIX.length()).trim();
+                    final Optional<Progress> oProgress = Progress.parse(transfered, checksLine);
+                    if (oProgress.isPresent()) {
+                        final long bandwidthLimit = synchronization.result().bandwidthLimit();
+                        final Progress progress = bandwidthLimit == 0 ? oProgress.get() : oProgress.get().withBandwidthLimit(bandwidthLimit);
+                        synchronization.result().setDeferredBytes(progress.totalBytes() - progress.processedBytes());
+                        eventConsumer.accept(progress);
+                        synchronization.progressSink().submit(progress);
+                    } else {
+                        onNonProgressLine(line, synchronization);
+                        onNonProgressLine(checks, synchronization);
                     }
-                    onNonProgressLine(line, result);
-                    onNonProgressLine(checks, result);
                 } else {
-                    onNonProgressLine(line, result);
+                    onNonProgressLine(line, synchronization);
                 }
+                line = reader.nextLine();
             }
         }
     }
@@ -232,22 +876,122 @@ public class RcloneSync {
      * This method can be overridden by subclasses to handle additional output lines.
      *
      * @param line the output line to process
-     * @param result the synchronization result to update
+     * @param synchronization the synchronization to update
      * @return true if the line was processed, false otherwise
      */
-    boolean onNonProgressLine(String line, SynchronizationResult result) {
-        if (line.endsWith(": Deleted")) {
+    boolean onNonProgressLine(String line, Synchronization synchronization) {
+        final SynchronizationResult result = synchronization.result();
+        final TransferTracker transfers = synchronization.transferTracker();
+        transfers.onLine(line);
+        if (line.endsWith(DELETED_SUFFIX)) {
             result.incrementDeleted();
-        } else if (line.endsWith(": Copied (new)")) {
+            publish(synchronization, line, DELETED_SUFFIX, FileEvent.Type.DELETED);
+        } else if (line.endsWith(COPIED_SUFFIX)) {
             result.incrementCopied();
-        } else if (line.endsWith(": Copied (replaced existing)")) {
+            transfers.onCopied(line, COPIED_SUFFIX);
+            publish(synchronization, line, COPIED_SUFFIX, FileEvent.Type.COPIED);
+        } else if (line.endsWith(REPLACED_SUFFIX)) {
             result.incrementReplaced();
-        } else if (!line.endsWith(": checking") && !line.endsWith(": transferring") && !line.endsWith(": There was nothing to transfer")) {
+            transfers.onCopied(line, REPLACED_SUFFIX);
+            publish(synchronization, line, REPLACED_SUFFIX, FileEvent.Type.REPLACED);
+        } else if (line.startsWith(TransferTracker.TRANSFER_PREFIX) && transfers.onTransfer(line)) {
+            return false;
+        } else if (isProgressStart(line) && parseTransfers(line, result)) {
+            return false;
+        } else if (line.contains(ERROR_MARKER)) {
+            parseError(line, result);
+            return false;
+        } else if (!line.endsWith(CHECKING_SUFFIX) && !line.endsWith(TRANSFERRING_SUFFIX) && !line.endsWith(NOTHING_TO_TRANSFER_SUFFIX)) {
             return true;
         }
         return false;
     }
 
+    /**
+     * Parses the file count line of the rclone statistics (e.g. "Transferred:   3 / 10, 30%").
+     *
+     * @param line the line
+     * @param result the result where the number of files that remain to transfer is set
+     * @return true if the line is a file count line
+     */
+    private static boolean parseTransfers(String line, SynchronizationResult result) {
+        final int comma = line.indexOf(',');
+        final String[] counts = line.substring(TRANSFERRED_PREFIX.length(), comma < 0 ? line.length() : comma).split("/");
+        if (counts.length != 2) {
+            return false;
+        }
+        try {
+            final int transferred = Integer.parseInt(counts[0].trim());
+            final int total = Integer.parseInt(counts[1].trim());
+            result.setDeferredFiles(total - transferred);
+            return true;
+        } catch (NumberFormatException e) {
+            // Not a file count (e.g. a truncated byte count line)
+            return false;
+        }
+    }
+
+    /**
+     * Parses an error line (e.g. "2023/01/01 12:00:00 ERROR : dir/file.txt: Failed to copy: permission denied").
+     * <br>The path ends at the separator that precedes one of the {@link #FILE_ERRORS}, so it may contain ": ".
+     * Errors that are not related to a file, like the summary of an rclone attempt, are ignored.
+     *
+     * @param line the error line
+     * @param result the result where the failure is added
+     */
+    private static void parseError(String line, SynchronizationResult result) {
+        final int start = line.indexOf(ERROR_MARKER) + ERROR_MARKER.length();
+        for (int separator = line.indexOf(PATH_SEPARATOR, start); separator > 0; separator = line.indexOf(PATH_SEPARATOR, separator + 1)) {
+            final int messageStart = separator + PATH_SEPARATOR.length();
+            if (separator > start && FILE_ERRORS.stream().anyMatch(error -> line.startsWith(error, messageStart))) {
+                final String message = line.substring(messageStart);
+                result.addFailure(new FileFailure(line.substring(start, separator), FileFailure.Category.of(message), message));
+                return;
+            }
+        }
+    }
+
+    private void publish(Synchronization synchronization, String line, String suffix, FileEvent.Type type) {
+        final DemandPublisher<FileEvent> publisher = synchronization.fileEventSink();
+        final CheckpointJournal journal = synchronization.journal();
+        // Don't extract the path if nobody needs it
+        final boolean demand = publisher.hasDemand();
+        final boolean failures = synchronization.result().hasFailures();
+        if (!demand && journal == null && !failures) {
+            return;
+        }
+        final String path = path(line, suffix);
+        if (failures) {
+            // The file may have failed during a previous attempt of rclone
+            synchronization.result().removeFailure(path);
+        }
+        if (demand) {
+            publisher.submit(new FileEvent(path, type));
+        }
+        if (journal != null) {
+            try {
+                journal.record(path);
+            } catch (IOException e) {
+                // The synchronization goes on, but it will not be resumable from this point
+                synchronization.setJournal(null);
+                exceptionConsumer.accept(e);
+            }
+        }
+    }
+
+    /**
+     * Extracts the path of a file from an rclone log line (e.g. "2023/01/01 12:00:00 INFO  : dir/file.txt: Copied (new)").
+     *
+     * @param line the log line
+     * @param suffix the suffix of the line that follows the path
+     * @return the path
+     */
+    static String path(String line, String suffix) {
+        final int index = line.indexOf(LEVEL_SEPARATOR);
+        final int start = index < 0 ? 0 : index + LEVEL_SEPARATOR.length();
+        return line.substring(start, line.length() - suffix.length());
+    }
+
     private boolean isProgressStart(String line) {
         return line.startsWith(TRANSFERRED_PREFIX);
     }
@@ -0,0 +1,173 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client of the remote control API of an rclone process.
+ * <br>The process should be launched with the options returned by {@link #options()} and the environment variables
+ * returned by {@link #environment()}. The API listens on a local port and requires a user and a password that are
+ * generated for each client, so other local users can't control the process. The credentials are passed in the
+ * environment of the process, which, unlike its command line, other users can't read.
+ */
+class RemoteControl {
+    /** The number of attempts to launch rclone on a free port */
+    static final int MAX_ATTEMPTS = 3;
+    private static final String HOST = "127.0.0.1";
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final long POLL_MILLIS = 50;
+    private static final HttpClient CLIENT = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String user = randomToken();
+    private final String password = randomToken();
+    private volatile int port;
+
+    /**
+     * Creates a client that listens on a free local port.
+     * <br>The port is free when this method is called, but could be taken by another process before rclone starts
+     * (see {@link #awaitStart(Process)}).
+     *
+     * @throws IOException if no free port can be found
+     */
+    RemoteControl() throws IOException {
+        changePort();
+    }
+
+    /**
+     * Switches to another free local port.
+     * <br>The options returned by {@link #options()} change accordingly.
+     *
+     * @throws IOException if no free port can be found
+     */
+    void changePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Gets the rclone options that enable the remote control API.
+     *
+     * @return a list of rclone options
+     */
+    String[] options() {
+        return new String[] {"--rc", "--rc-addr", address()};
+    }
+
+    /**
+     * Gets the environment variables that set the credentials of the remote control API.
+     *
+     * @return the variables to add to the environment of the rclone process
+     */
+    Map<String, String> environment() {
+        return Map.of("RCLONE_RC_USER", user, "RCLONE_RC_PASS", password);
+    }
+
+    /**
+     * Waits until the remote control API of a process answers.
+     * <br>rclone starts its remote control server before anything else and exits if it can't listen on the port.
+     *
+     * @param process a process launched with the options of this client
+     * @return false if the process ended with an error before the API answered, which means it was probably unable
+     * to listen on the port. True if the API answered, if the process ended successfully, or if the API still does not
+     * answer after a few seconds
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    boolean awaitStart(Process process) throws InterruptedIOException {
+        // rc/noop returns its parameters, the nonce proves that the answer comes from the process
+        final String nonce = randomToken();
+        final long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        try {
+            while (System.nanoTime() < deadline) {
+                if (process.waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return process.exitValue() == 0;
+                }
+                try {
+                    if (send("rc/noop", "{\"nonce\":\"" + nonce + "\"}").contains(nonce)) {
+                        return true;
+                    }
+                } catch (IOException e) {
+                    // Not listening yet, or another process owns the port
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for rclone remote control");
+        }
+        return true;
+    }
+
+    /**
+     * Sets the bandwidth limit of the rclone process.
+     *
+     * @param bytesPerSecond the limit in bytes per second, 0 for no limit
+     * @throws UncheckedIOException if the limit can't be set
+     */
+    void setBandwidthLimit(long bytesPerSecond) {
+        call("core/bwlimit", "{\"rate\":\"" + toRate(bytesPerSecond) + "\"}");
+    }
+
+    /**
+     * Converts a bandwidth to the format of rclone's <code>--bwlimit</code> option.
+     *
+     * @param bytesPerSecond the limit in bytes per second, 0 for no limit
+     * @return a rate (rclone's default unit is KiB, so the B suffix is required)
+     */
+    static String toRate(long bytesPerSecond) {
+        return bytesPerSecond == 0 ? "off" : bytesPerSecond + "B";
+    }
+
+    private void call(String method, String json) {
+        try {
+            send(method, json);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while calling " + method));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String send(String method, String json) throws IOException, InterruptedException {
+        final String credentials = Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + address() + "/" + method))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Basic " + credentials)
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        final HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("rclone remote control " + method + " failed (" + response.statusCode() + "): " + response.body());
+        }
+        return response.body();
+    }
+
+    /**
+     * Gets the address of the remote control API.
+     *
+     * @return the value of the <code>--rc-addr</code> option
+     */
+    String address() {
+        return HOST + ":" + port;
+    }
+
+    private static String randomToken() {
+        final byte[] bytes = new byte[18];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
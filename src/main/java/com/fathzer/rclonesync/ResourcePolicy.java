@@ -0,0 +1,480 @@
+package com.fathzer.rclonesync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * A set of resource limits applied to the rclone process when it is launched.
+ * <br>On Linux, the policy is applied by prefixing the rclone command with the standard tools
+ * (<code>systemd-run</code>, <code>nice</code>, <code>ionice</code> and <code>taskset</code>).
+ * A setting whose tool is not available on the host is silently ignored. Once the process is launched, its settings
+ * are read back from <code>/proc</code>, and only the ones that actually took effect are reported by
+ * {@link Synchronization#appliedResourceSettings()}. For instance, a nice value lower than the one of the JVM or the
+ * real time I/O class are not reported if the process is not privileged.
+ * <br>On other operating systems, the policy is ignored.
+ */
+public class ResourcePolicy {
+    private static final Path CGROUP_V2_ROOT = Paths.get("/sys/fs/cgroup");
+    private static final Path CGROUP_V2_CONTROLLERS = CGROUP_V2_ROOT.resolve("cgroup.controllers");
+    /** The maximum time to wait for the wrapping tools to launch the wrapped command */
+    private static final long LAUNCH_TIMEOUT_MILLIS = 1000;
+    /** The largest page size; the kernel rounds the memory.max value down to a multiple of the page size */
+    private static final long MAX_PAGE_SIZE = 64 * 1024;
+    private static Boolean userScopeAvailable;
+
+    /**
+     * An I/O scheduling class, as defined by <code>ionice</code>.
+     */
+    public enum IoClass {
+        /** Real time class (usually requires root privileges). */
+        REALTIME(1),
+        /** Best effort class (the Linux default). */
+        BEST_EFFORT(2),
+        /** Idle class: the process only gets I/O when no other process needs it. */
+        IDLE(3);
+
+        private final int code;
+
+        IoClass(int code) {
+            this.code = code;
+        }
+
+        /** Gets the name of the class in the output of <code>ionice -p</code>. */
+        private String label() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    /**
+     * The resource settings of a running process, as read from <code>/proc</code>.
+     *
+     * @param nice the nice value, null if unknown
+     * @param ioPriority the output of <code>ionice -p</code> (e.g. "best-effort: prio 7"), null if unknown
+     * @param cpus the allowed CPUs, null if unknown
+     * @param memoryMax the content of the <code>memory.max</code> file of the process cgroup, null if unknown
+     * @param cpuMax the content of the <code>cpu.max</code> file of the process cgroup, null if unknown
+     */
+    record ProcessState(Integer nice, String ioPriority, Set<Integer> cpus, String memoryMax, String cpuMax) {}
+
+    /**
+     * A setting of the policy.
+     */
+    public enum Setting {
+        /** The CPU nice value. */
+        NICE,
+        /** The I/O scheduling class and priority. */
+        IO_CLASS,
+        /** The CPU affinity. */
+        CPU_AFFINITY,
+        /** The cgroup v2 memory cap. */
+        CGROUP_MEMORY,
+        /** The cgroup v2 CPU cap. */
+        CGROUP_CPU
+    }
+
+    private Integer nice;
+    private IoClass ioClass;
+    private Integer ioPriority;
+    private int[] cpus;
+    private long memoryMax;
+    private int cpuQuota;
+
+    /**
+     * Sets the CPU nice value of the rclone process.
+     * <br>This is the value the process ends with, not an increment: <code>nice</code> is called with the difference
+     * between this value and the nice value of the JVM.
+     *
+     * @param nice the nice value, from -20 (highest priority) to 19 (lowest priority). Values lower than the nice value of the JVM usually require root privileges.
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if nice is not in [-20, 19]
+     */
+    public ResourcePolicy withNice(int nice) {
+        if (nice < -20 || nice > 19) {
+            throw new IllegalArgumentException("nice must be between -20 and 19");
+        }
+        this.nice = nice;
+        return this;
+    }
+
+    /**
+     * Sets the I/O scheduling class of the rclone process.
+     *
+     * @param ioClass the I/O scheduling class
+     * @param priority the priority inside the class, from 0 (highest) to 7 (lowest). It is ignored for the {@link IoClass#IDLE} class.
+     * @return this instance for method chaining
+     * @throws NullPointerException if ioClass is null
+     * @throws IllegalArgumentException if priority is not in [0, 7]
+     */
+    public ResourcePolicy withIoClass(IoClass ioClass, int priority) {
+        if (ioClass == null) {
+            throw new NullPointerException("ioClass must not be null");
+        }
+        if (priority < 0 || priority > 7) {
+            throw new IllegalArgumentException("priority must be between 0 and 7");
+        }
+        this.ioClass = ioClass;
+        this.ioPriority = ioClass == IoClass.IDLE ? null : priority;
+        return this;
+    }
+
+    /**
+     * Restricts the rclone process to some CPUs.
+     *
+     * @param cpus the indexes of the allowed CPUs
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if cpus is empty or contains a negative index
+     */
+    public ResourcePolicy withCpuAffinity(int... cpus) {
+        if (cpus.length == 0 || Arrays.stream(cpus).anyMatch(cpu -> cpu < 0)) {
+            throw new IllegalArgumentException("cpus must be a non empty list of positive indexes");
+        }
+        this.cpus = cpus.clone();
+        return this;
+    }
+
+    /**
+     * Sets the maximum memory of the rclone process.
+     * <br>This setting requires cgroup v2 and a systemd user session.
+     *
+     * @param bytes the maximum number of bytes (0, the default, means no limit)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if bytes is negative
+     */
+    public ResourcePolicy withMemoryMax(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative");
+        }
+        this.memoryMax = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the maximum CPU time of the rclone process.
+     * <br>This setting requires cgroup v2 and a systemd user session.
+     *
+     * @param percent the CPU quota as a percentage of one CPU (200 means two full CPUs, 0, the default, means no limit)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if percent is negative
+     */
+    public ResourcePolicy withCpuQuota(int percent) {
+        if (percent < 0) {
+            throw new IllegalArgumentException("percent must not be negative");
+        }
+        this.cpuQuota = percent;
+        return this;
+    }
+
+    /**
+     * Wraps a command in order to apply this policy to the launched process.
+     *
+     * @param cmd the command to wrap
+     * @param applied a set where the settings passed to the tools are added
+     * @return the wrapped command
+     */
+    List<String> wrap(List<String> cmd, Set<Setting> applied) {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return cmd;
+        }
+        final Integer currentNice = readNice(Paths.get("/proc/self"));
+        return wrap(cmd, applied, ResourcePolicy::isAvailable, currentNice == null ? 0 : currentNice);
+    }
+
+    /**
+     * Wraps a command in order to apply this policy to the launched process.
+     *
+     * @param cmd the command to wrap
+     * @param applied a set where the settings passed to the tools are added
+     * @param available a predicate that tests whether a tool can be used on this host
+     * @param currentNice the nice value of the JVM, which the launched process inherits
+     * @return the wrapped command
+     */
+    List<String> wrap(List<String> cmd, Set<Setting> applied, Predicate<String> available, int currentNice) {
+        final List<String> result = new LinkedList<>();
+        final Set<Setting> settings = EnumSet.noneOf(Setting.class);
+        if ((memoryMax > 0 || cpuQuota > 0) && available.test("systemd-run")) {
+            result.addAll(List.of("systemd-run", "--user", "--scope", "--quiet"));
+            if (memoryMax > 0) {
+                result.add("-p");
+                result.add("MemoryMax=" + memoryMax);
+                settings.add(Setting.CGROUP_MEMORY);
+            }
+            if (cpuQuota > 0) {
+                result.add("-p");
+                result.add("CPUQuota=" + cpuQuota + "%");
+                settings.add(Setting.CGROUP_CPU);
+            }
+            result.add("--");
+        }
+        if (nice != null && available.test("nice")) {
+            // nice -n is an increment of the current nice value
+            result.addAll(List.of("nice", "-n", Integer.toString(nice - currentNice)));
+            settings.add(Setting.NICE);
+        }
+        if (ioClass != null && available.test("ionice")) {
+            // -t: run the command even if the priority can't be set (realtime class without privileges)
+            result.addAll(List.of("ionice", "-t", "-c", Integer.toString(ioClass.code)));
+            if (ioPriority != null) {
+                result.add("-n");
+                result.add(ioPriority.toString());
+            }
+            settings.add(Setting.IO_CLASS);
+        }
+        if (cpus != null && available.test("taskset")) {
+            result.addAll(List.of("taskset", "-c", Arrays.stream(cpus).mapToObj(Integer::toString).collect(Collectors.joining(","))));
+            settings.add(Setting.CPU_AFFINITY);
+        }
+        result.addAll(cmd);
+        applied.addAll(settings);
+        return result;
+    }
+
+    /**
+     * Checks which settings took effect on a launched process.
+     * <br>The tools that wrap the command replace themselves with the next command of the chain. This method waits
+     * (up to 1 second) for the process to run the wrapped command, then reads its settings back.
+     *
+     * @param process the launched process
+     * @param cmd the wrapped command
+     * @param requested the settings passed to the tools by {@link #wrap(List, Set)}
+     * @return the settings that took effect, empty if they can't be read (the process ended, or is not a native process)
+     */
+    Set<Setting> checkApplied(Process process, List<String> cmd, Set<Setting> requested) {
+        final Set<Setting> applied = EnumSet.noneOf(Setting.class);
+        if (requested.isEmpty()) {
+            return applied;
+        }
+        final long pid;
+        try {
+            pid = process.pid();
+        } catch (UnsupportedOperationException e) {
+            return applied;
+        }
+        final Path proc = Paths.get("/proc", Long.toString(pid));
+        if (awaitCommand(proc, cmd)) {
+            final ProcessState state = readState(pid, proc, requested);
+            // The process may have ended while its state was read
+            if (awaitCommand(proc, cmd)) {
+                applied.addAll(checkApplied(state, requested));
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Checks which settings are applied in a process state.
+     *
+     * @param state the state of the process
+     * @param requested the settings passed to the tools
+     * @return the requested settings that match the state
+     */
+    Set<Setting> checkApplied(ProcessState state, Set<Setting> requested) {
+        final Set<Setting> applied = EnumSet.noneOf(Setting.class);
+        if (requested.contains(Setting.NICE) && nice.equals(state.nice())) {
+            applied.add(Setting.NICE);
+        }
+        if (requested.contains(Setting.IO_CLASS) && state.ioPriority() != null && state.ioPriority().startsWith(ioClass.label())
+                && (ioPriority == null || state.ioPriority().endsWith("prio " + ioPriority))) {
+            applied.add(Setting.IO_CLASS);
+        }
+        if (requested.contains(Setting.CPU_AFFINITY) && state.cpus() != null
+                && state.cpus().equals(Arrays.stream(cpus).boxed().collect(Collectors.toSet()))) {
+            applied.add(Setting.CPU_AFFINITY);
+        }
+        if (requested.contains(Setting.CGROUP_MEMORY) && isMemoryMaxApplied(state.memoryMax())) {
+            applied.add(Setting.CGROUP_MEMORY);
+        }
+        if (requested.contains(Setting.CGROUP_CPU) && isCpuQuotaApplied(state.cpuMax())) {
+            applied.add(Setting.CGROUP_CPU);
+        }
+        return applied;
+    }
+
+    private boolean isMemoryMaxApplied(String memoryMaxFile) {
+        // The file contains "max" or a number of bytes, rounded down to a multiple of the page size
+        final Long bytes = parseLong(memoryMaxFile);
+        return bytes != null && bytes <= memoryMax && memoryMax - bytes < MAX_PAGE_SIZE;
+    }
+
+    private boolean isCpuQuotaApplied(String cpuMaxFile) {
+        // The file contains "$QUOTA $PERIOD" in microseconds, the quota is "max" when there's no limit
+        if (cpuMaxFile == null) {
+            return false;
+        }
+        final String[] fields = cpuMaxFile.split(" ");
+        final Long quota = parseLong(fields[0]);
+        final Long period = fields.length == 2 ? parseLong(fields[1]) : null;
+        // systemd may round the quota, accept less than 1% of difference
+        return quota != null && period != null && period > 0 && Math.abs(quota * 100 - cpuQuota * period) < period;
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return value == null ? null : Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean awaitCommand(Path proc, List<String> cmd) {
+        final String expected = String.join("\0", cmd) + "\0";
+        final long deadline = System.currentTimeMillis() + LAUNCH_TIMEOUT_MILLIS;
+        try {
+            while (true) {
+                final String current;
+                try {
+                    current = new String(Files.readAllBytes(proc.resolve("cmdline")));
+                } catch (IOException e) {
+                    // The process ended
+                    return false;
+                }
+                if (current.equals(expected)) {
+                    return true;
+                }
+                if (current.isEmpty() || System.currentTimeMillis() > deadline) {
+                    // Zombie process, or a tool that did not launch the command
+                    return false;
+                }
+                Thread.sleep(5);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static ProcessState readState(long pid, Path proc, Set<Setting> requested) {
+        final String cgroup = requested.contains(Setting.CGROUP_MEMORY) || requested.contains(Setting.CGROUP_CPU) ? readCgroup(proc) : null;
+        return new ProcessState(
+            requested.contains(Setting.NICE) ? readNice(proc) : null,
+            requested.contains(Setting.IO_CLASS) ? readIoPriority(pid) : null,
+            requested.contains(Setting.CPU_AFFINITY) ? readCpus(proc) : null,
+            cgroup == null ? null : readQuietly(CGROUP_V2_ROOT.resolve(cgroup).resolve("memory.max")),
+            cgroup == null ? null : readQuietly(CGROUP_V2_ROOT.resolve(cgroup).resolve("cpu.max")));
+    }
+
+    private static Integer readNice(Path proc) {
+        final String stat = readQuietly(proc.resolve("stat"));
+        if (stat == null) {
+            return null;
+        }
+        // The command name, in parenthesis, may contain spaces. The nice value is the 19th field, the 17th after the name
+        final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        try {
+            return fields.length > 16 ? Integer.valueOf(fields[16]) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String readIoPriority(long pid) {
+        // The I/O priority is not available in /proc
+        try {
+            final Process process = new ProcessBuilder("ionice", "-p", Long.toString(pid))
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            final String output = new String(process.getInputStream().readAllBytes()).trim();
+            return process.waitFor() == 0 ? output : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static Set<Integer> readCpus(Path proc) {
+        final String status = readQuietly(proc.resolve("status"));
+        if (status == null) {
+            return null;
+        }
+        return status.lines().filter(line -> line.startsWith("Cpus_allowed_list:")).findFirst()
+            .map(line -> parseCpuList(line.substring(line.indexOf(':') + 1).trim())).orElse(null);
+    }
+
+    /**
+     * Parses a CPU list (e.g. "0-2,5").
+     *
+     * @param list the list
+     * @return the CPU indexes
+     */
+    static Set<Integer> parseCpuList(String list) {
+        final Set<Integer> cpuSet = new TreeSet<>();
+        for (String range : list.split(",")) {
+            final int dash = range.indexOf('-');
+            final int first = Integer.parseInt(range.substring(0, dash < 0 ? range.length() : dash).trim());
+            final int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpuSet.add(cpu);
+            }
+        }
+        return cpuSet;
+    }
+
+    private static String readCgroup(Path proc) {
+        final String cgroups = readQuietly(proc.resolve("cgroup"));
+        if (cgroups == null) {
+            return null;
+        }
+        // The cgroup v2 hierarchy has the id 0, its path is absolute
+        return cgroups.lines().filter(line -> line.startsWith("0::/")).findFirst().map(line -> line.substring(4)).orElse(null);
+    }
+
+    private static String readQuietly(Path file) {
+        try {
+            return Files.readString(file).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isAvailable(String tool) {
+        if ("systemd-run".equals(tool)) {
+            return isUserScopeAvailable();
+        }
+        return isOnPath(tool);
+    }
+
+    private static boolean isOnPath(String tool) {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        return Arrays.stream(path.split(File.pathSeparator)).map(dir -> Paths.get(dir, tool)).anyMatch(Files::isExecutable);
+    }
+
+    private static synchronized boolean isUserScopeAvailable() {
+        if (userScopeAvailable == null) {
+            // A transient scope requires cgroup v2 and a running systemd user instance, which is not the case in most containers
+            userScopeAvailable = Files.exists(CGROUP_V2_CONTROLLERS) && isOnPath("systemd-run") && probeUserScope();
+        }
+        return userScopeAvailable;
+    }
+
+    private static boolean probeUserScope() {
+        try {
+            final Process process = new ProcessBuilder("systemd-run", "--user", "--scope", "--quiet", "true").redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
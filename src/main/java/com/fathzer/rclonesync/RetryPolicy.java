@@ -0,0 +1,106 @@
+package com.fathzer.rclonesync;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The policy used to retry the files that failed to synchronize.
+ * <br>Failed files are retried after a delay that depends on the category of their error, and that doubles at each attempt
+ * (exponential backoff), up to a maximum delay.
+ * @see RcloneSync#retryFailed(SynchronizationResult, RetryPolicy)
+ */
+public class RetryPolicy {
+    private int maxAttempts = 3;
+    private Duration maxDelay = Duration.ofMinutes(10);
+    private final Map<FileFailure.Category, Duration> initialDelays = new EnumMap<>(FileFailure.Category.class);
+
+    /**
+     * Creates a policy with default settings.
+     * <br>By default, files are retried 3 times. The initial delays are 30s for rate limits, 1 minute for permission errors,
+     * 5 minutes for a full storage, 5s for network errors, missing and corrupted files, and 10s for other errors.
+     */
+    public RetryPolicy() {
+        initialDelays.put(FileFailure.Category.RATE_LIMIT, Duration.ofSeconds(30));
+        initialDelays.put(FileFailure.Category.PERMISSION, Duration.ofMinutes(1));
+        initialDelays.put(FileFailure.Category.NO_SPACE, Duration.ofMinutes(5));
+        initialDelays.put(FileFailure.Category.NOT_FOUND, Duration.ofSeconds(5));
+        initialDelays.put(FileFailure.Category.CORRUPTED, Duration.ofSeconds(5));
+        initialDelays.put(FileFailure.Category.NETWORK, Duration.ofSeconds(5));
+        initialDelays.put(FileFailure.Category.OTHER, Duration.ofSeconds(10));
+    }
+
+    /**
+     * Sets the maximum number of attempts for each file.
+     *
+     * @param maxAttempts a number of attempts (default: 3)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if maxAttempts is not positive
+     */
+    public RetryPolicy withMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Sets the delay before the first attempt of the files of a category.
+     *
+     * @param category an error category
+     * @param delay the delay, that is doubled at each next attempt
+     * @return this instance for method chaining
+     * @throws NullPointerException if an argument is null
+     * @throws IllegalArgumentException if delay is negative
+     */
+    public RetryPolicy withInitialDelay(FileFailure.Category category, Duration delay) {
+        if (category == null || delay == null) {
+            throw new NullPointerException("category and delay must not be null");
+        }
+        if (delay.isNegative()) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        initialDelays.put(category, delay);
+        return this;
+    }
+
+    /**
+     * Sets the maximum delay between two attempts.
+     *
+     * @param maxDelay a delay (default: 10 minutes)
+     * @return this instance for method chaining
+     * @throws NullPointerException if maxDelay is null
+     */
+    public RetryPolicy withMaxDelay(Duration maxDelay) {
+        if (maxDelay == null) {
+            throw new NullPointerException("maxDelay must not be null");
+        }
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of attempts for each file.
+     *
+     * @return a number of attempts
+     */
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets the delay before an attempt.
+     *
+     * @param category the category of the error of the previous attempt
+     * @param attempt the attempt number, starting at 1
+     * @return a delay
+     */
+    public Duration delay(FileFailure.Category category, int attempt) {
+        final Duration initial = initialDelays.get(category);
+        // Shifting by more than 62 would overflow, the delay is capped anyway
+        final long factor = 1L << Math.min(attempt - 1, 62);
+        final Duration delay = initial.toMillis() > maxDelay.toMillis() / factor ? maxDelay : initial.multipliedBy(factor);
+        return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+    }
+}
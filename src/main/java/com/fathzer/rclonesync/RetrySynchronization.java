@@ -0,0 +1,143 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * The retries of the files that failed during a synchronization.
+ * <br>Each retry is a stage of a composite synchronization that syncs the files of an error category through
+ * <code>--files-from-raw</code>, once the delay of the category is elapsed. The failures of directories are not retried.
+ */
+class RetrySynchronization extends CompositeSynchronization {
+    /** A group of files to retry. */
+    private record Retry(FileFailure.Category category, int attempt, List<FileFailure> failures, long due) {}
+
+    private final RetryPolicy policy;
+    private final BiFunction<Path, List<FileFailure>, RcloneSync> syncFactory;
+    private final Consumer<IOException> exceptionConsumer;
+    private final PriorityQueue<Retry> retries = new PriorityQueue<>(Comparator.comparingLong(Retry::due));
+    // The failures that are pending or definitive, by path
+    private final Map<String, FileFailure> failures = new LinkedHashMap<>();
+    private Retry running;
+    private Path runningList;
+
+    /**
+     * Creates a retry synchronization.
+     *
+     * @param policy the retry policy
+     * @param syncFactory a function that creates a synchronization restricted to the files listed in a file, and whose
+     * result starts with the failures of these files
+     * @param eventConsumer the consumer of the progress
+     * @param exceptionConsumer the consumer of the errors that occur when a process is started
+     */
+    RetrySynchronization(RetryPolicy policy, BiFunction<Path, List<FileFailure>, RcloneSync> syncFactory, Consumer<Progress> eventConsumer,
+            Consumer<IOException> exceptionConsumer) {
+        super(eventConsumer, exceptionConsumer);
+        this.policy = policy;
+        this.syncFactory = syncFactory;
+        this.exceptionConsumer = exceptionConsumer;
+    }
+
+    /**
+     * Starts the retries in a background thread.
+     *
+     * @param failed the failed files
+     */
+    void retry(List<FileFailure> failed) {
+        schedule(failed, 1);
+        addCompletionAction(this::deleteRunningList);
+        start(this::next);
+    }
+
+    private synchronized void schedule(Collection<FileFailure> failed, int attempt) {
+        failed.forEach(failure -> failures.put(failure.path(), failure));
+        if (attempt > policy.maxAttempts()) {
+            // These failures are definitive
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        // A files list only selects files, the failures of directories are definitive
+        failed.stream().filter(failure -> !failure.isDirectory()).collect(Collectors.groupingBy(FileFailure::category, LinkedHashMap::new, Collectors.toList()))
+            .forEach((category, group) -> retries.add(new Retry(category, attempt, group, now + policy.delay(category, attempt).toMillis())));
+    }
+
+    private List<RcloneSync> next(List<Synchronization> previous) throws InterruptedException {
+        if (running != null) {
+            onRetryEnd(previous.get(0).result());
+        }
+        final Retry retry;
+        synchronized (this) {
+            retry = retries.poll();
+            running = retry;
+        }
+        if (retry == null || !sleep(Math.max(0, retry.due() - System.currentTimeMillis()))) {
+            return null;
+        }
+        try {
+            runningList = Files.createTempFile("rclone-retry", ".txt");
+            Files.write(runningList, retry.failures().stream().map(FileFailure::path).toList(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            exceptionConsumer.accept(e);
+            return null;
+        }
+        return List.of(syncFactory.apply(runningList, retry.failures()));
+    }
+
+    private void onRetryEnd(SynchronizationResult result) {
+        deleteRunningList();
+        // The result started with the failures of the retry, only the files that rclone completed were removed.
+        // The other ones failed again, or were not reported (for instance if rclone failed before processing them).
+        final List<FileFailure> failedAgain = result.failures();
+        synchronized (this) {
+            running.failures().forEach(failure -> failures.remove(failure.path()));
+        }
+        schedule(failedAgain, running.attempt() + 1);
+    }
+
+    private void deleteRunningList() {
+        if (runningList != null) {
+            try {
+                Files.deleteIfExists(runningList);
+            } catch (IOException e) {
+                // Temporary files are deleted on a best effort basis
+            }
+            runningList = null;
+        }
+    }
+
+    /**
+     * Gets the merged result of the retries.
+     * <br>The file counts are summed. The failures are the files that are not successfully retried yet, and the exit
+     * code is 0 if there is no such file.
+     *
+     * @return a new result that is a snapshot of the current results of the retries
+     */
+    @Override
+    public SynchronizationResult result() {
+        final SynchronizationResult merged = super.result();
+        final SynchronizationResult result = new SynchronizationResult();
+        result.add(merged);
+        synchronized (this) {
+            result.failures().forEach(failure -> result.removeFailure(failure.path()));
+            failures.values().forEach(result::addFailure);
+        }
+        result.setExitCode(result.hasFailures() ? nonZero(merged.exitCode()) : 0);
+        return result;
+    }
+
+    private static int nonZero(int exitCode) {
+        // The last retry may have succeeded, while other files still fail
+        return exitCode == 0 ? 1 : exitCode;
+    }
+}
@@ -0,0 +1,279 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinates the synchronizations of several nodes through a {@link LeaseStore}.
+ * <br>A synchronization runs only while its node holds the lease of its key (typically its destination, or a shard
+ * of it), so the same synchronization never runs on two nodes at once. The lease is renewed by heartbeats while the
+ * synchronization starts and runs, and released when it ends. If a heartbeat finds that the lease was lost, the synchronization
+ * is cancelled. If the store can't be reached, the synchronization is cancelled as soon as the lease could expire
+ * before the next heartbeat (taking the {@link #withMaxClockSkew(Duration) clock skew} into account).
+ * <br>The {@link LeaseStore.Lease#token() fencing token} of a lease only fences the calls to the store: the remotes
+ * a synchronization writes to don't check it. So a node that stops responding (a long GC pause, a frozen VM) and
+ * loses its lease may still write until its heartbeat cancels its synchronization.
+ * <br>Shards can also be queued with {@link #submit(String)}; idle nodes pick them up with
+ * {@link #runNext(Function)}. A shard stays queued until a node completes it successfully, so the shards of a
+ * crashed node or of a failed synchronization are picked up by another node once their lease expires or is released.
+ * <br>Example:
+ * <pre>{@code
+ * SyncCoordinator coordinator = new SyncCoordinator(new FileLeaseStore(Path.of("/mnt/shared/rclone")), "node-1");
+ * Optional<Synchronization> sync = coordinator.run("remote:backup", new RcloneSync("/data", "remote:backup")::run);
+ * }</pre>
+ */
+public class SyncCoordinator {
+    private final LeaseStore store;
+    private final String nodeId;
+    private final Clock clock;
+    private Duration leaseDuration = Duration.ofSeconds(30);
+    private Duration maxClockSkew = Duration.ofSeconds(5);
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A job that starts a synchronization.
+     */
+    @FunctionalInterface
+    public interface Job {
+        /**
+         * Starts the synchronization.
+         *
+         * @return the running synchronization
+         * @throws IOException if the synchronization can't be started
+         */
+        Synchronization start() throws IOException;
+    }
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param store the store shared by the nodes
+     * @param nodeId the identifier of this node, that must be unique among the nodes
+     * @throws NullPointerException if an argument is null
+     */
+    public SyncCoordinator(LeaseStore store, String nodeId) {
+        this(store, nodeId, Clock.systemUTC());
+    }
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param store the store shared by the nodes
+     * @param nodeId the identifier of this node
+     * @param clock the clock used to detect the expiry of a lease that can't be renewed
+     */
+    SyncCoordinator(LeaseStore store, String nodeId, Clock clock) {
+        if (store == null || nodeId == null) {
+            throw new NullPointerException("store and nodeId must not be null");
+        }
+        this.store = store;
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the duration of the leases.
+     * <br>Leases are renewed every third of this duration. A node that dies holds its leases until they expire.
+     *
+     * @param leaseDuration a duration (default: 30 seconds)
+     * @return this instance for method chaining
+     * @throws NullPointerException if leaseDuration is null
+     * @throws IllegalArgumentException if leaseDuration is shorter than 3 milliseconds
+     */
+    public SyncCoordinator withLeaseDuration(Duration leaseDuration) {
+        if (leaseDuration == null) {
+            throw new NullPointerException("leaseDuration must not be null");
+        }
+        if (leaseDuration.toMillis() < 3) {
+            throw new IllegalArgumentException("leaseDuration must be at least 3 milliseconds");
+        }
+        this.leaseDuration = leaseDuration;
+        return this;
+    }
+
+    /**
+     * Sets the maximum difference between the clocks of the nodes.
+     * <br>When the lease of a running synchronization can't be renewed, the synchronization is cancelled before the
+     * lease expiry minus this duration, since another node may consider it expired at that time.
+     *
+     * @param maxClockSkew a duration (default: 5 seconds, as in {@link FileLeaseStore})
+     * @return this instance for method chaining
+     * @throws NullPointerException if maxClockSkew is null
+     * @throws IllegalArgumentException if maxClockSkew is negative
+     */
+    public SyncCoordinator withMaxClockSkew(Duration maxClockSkew) {
+        if (maxClockSkew == null) {
+            throw new NullPointerException("maxClockSkew must not be null");
+        }
+        if (maxClockSkew.isNegative()) {
+            throw new IllegalArgumentException("maxClockSkew must not be negative");
+        }
+        this.maxClockSkew = maxClockSkew;
+        return this;
+    }
+
+    /**
+     * Runs a synchronization if no other node is running it.
+     *
+     * @param key the key of the synchronization, shared by all the nodes
+     * @param job the job that starts the synchronization
+     * @return the running synchronization, or an empty optional if another node holds the lease of the key
+     * @throws IOException if the store can't be accessed or the synchronization can't be started
+     */
+    public Optional<Synchronization> run(String key, Job job) throws IOException {
+        final Optional<LeaseStore.Lease> lease = store.acquire(key, nodeId, leaseDuration);
+        return lease.isPresent() ? Optional.of(start(lease.get(), job)) : Optional.empty();
+    }
+
+    /**
+     * Queues a shard, that will be run by the first idle node.
+     *
+     * @param shard the key of the shard
+     * @throws IOException if the store can't be accessed
+     */
+    public void submit(String shard) throws IOException {
+        store.submit(shard);
+    }
+
+    /**
+     * Runs the first queued shard that is not running on another node.
+     *
+     * @param jobs a function that returns the job of a shard
+     * @return the running synchronization, or an empty optional if there's no shard to run
+     * @throws IOException if the store can't be accessed or the synchronization can't be started
+     */
+    public Optional<Synchronization> runNext(Function<String, Job> jobs) throws IOException {
+        final Optional<LeaseStore.Lease> lease = store.claim(nodeId, leaseDuration);
+        return lease.isPresent() ? Optional.of(start(lease.get(), jobs.apply(lease.get().key()))) : Optional.empty();
+    }
+
+    private Synchronization start(LeaseStore.Lease lease, Job job) throws IOException {
+        // The job may take a long time to start (listings, ...), the lease is renewed in the meantime
+        final long period = leaseDuration.toMillis() / 3;
+        final Heartbeat heartbeat = new Heartbeat(lease, Duration.ofMillis(period));
+        heartbeat.start(scheduler().scheduleAtFixedRate(heartbeat::beat, period, period, TimeUnit.MILLISECONDS));
+        final Synchronization synchronization;
+        try {
+            synchronization = job.start();
+        } catch (IOException | RuntimeException e) {
+            heartbeat.stop(false);
+            throw e;
+        }
+        heartbeat.attach(synchronization);
+        synchronization.addCompletionAction(() ->
+            heartbeat.stop(synchronization.result().exitCode() == 0 && !synchronization.isCancelled()));
+        return synchronization;
+    }
+
+    /**
+     * The renewals of the lease of a synchronization, from the start of its job to its end.
+     */
+    private class Heartbeat {
+        private final Duration period;
+        private LeaseStore.Lease lease;
+        /** The synchronization, null while its job is starting */
+        private Synchronization synchronization;
+        private ScheduledFuture<?> task;
+        private boolean lost;
+        private boolean stopped;
+
+        private Heartbeat(LeaseStore.Lease lease, Duration period) {
+            this.lease = lease;
+            this.period = period;
+        }
+
+        private synchronized void start(ScheduledFuture<?> task) {
+            this.task = task;
+            if (stopped) {
+                // The synchronization ended before the heartbeats were scheduled
+                task.cancel(false);
+            }
+        }
+
+        private synchronized void attach(Synchronization synchronization) {
+            this.synchronization = synchronization;
+            if (lost) {
+                // The lease was lost while the job was starting
+                synchronization.cancel();
+            }
+        }
+
+        private synchronized void beat() {
+            if (stopped || lost) {
+                return;
+            }
+            try {
+                final Optional<LeaseStore.Lease> renewed = store.renew(lease, leaseDuration);
+                if (renewed.isPresent()) {
+                    lease = renewed.get();
+                } else {
+                    lose("Lease of " + lease.key() + " was lost");
+                }
+            } catch (IOException e) {
+                // Another node may take over as soon as the expiry minus the clock skew is elapsed on its clock
+                if (!clock.instant().plus(period).isBefore(lease.expiry().minus(maxClockSkew))) {
+                    lose("Lease of " + lease.key() + " can't be renewed before it expires: " + e);
+                } else {
+                    logger().log(Level.FINE, "Unable to renew the lease of " + lease.key() + ", will retry", e);
+                }
+            }
+        }
+
+        private void lose(String message) {
+            lost = true;
+            logger().warning(message + ", its synchronization is cancelled");
+            if (task != null) {
+                task.cancel(false);
+            }
+            if (synchronization != null) {
+                synchronization.cancel();
+            }
+        }
+
+        private synchronized void stop(boolean done) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (task != null) {
+                task.cancel(false);
+            }
+            if (!lost) {
+                release(lease, done);
+            }
+        }
+    }
+
+    private void release(LeaseStore.Lease lease, boolean done) {
+        try {
+            store.release(lease, done);
+        } catch (IOException e) {
+            // The lease will expire
+            logger().log(Level.WARNING, "Unable to release the lease of " + lease.key(), e);
+        }
+    }
+
+    private static Logger logger() {
+        return Logger.getLogger(SyncCoordinator.class.getName());
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "rclone-sync-coordinator");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+}
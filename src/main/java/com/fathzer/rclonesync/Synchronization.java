@@ -1,5 +1,12 @@
 package com.fathzer.rclonesync;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
 /**
  * Represents an ongoing rclone synchronization operation.
  * This class provides methods to monitor and control the synchronization process.
@@ -8,10 +15,34 @@ public class Synchronization {
     private final Process process;
     private final SynchronizationResult result;
     private volatile boolean cancelled;
+    private Thread outputReader;
+    private final List<Runnable> completionActions = new CopyOnWriteArrayList<>();
+    private boolean actionsRun;
+    private TransferTracker transferTracker;
+    private final DemandPublisher<Progress> progressPublisher = new DemandPublisher<>(true);
+    private final DemandPublisher<FileEvent> fileEventPublisher;
+    private final boolean ownsFileEventPublisher;
+    private final DemandPublisher<SynchronizationResult> completionPublisher = new DemandPublisher<>(true);
+    private Set<ResourcePolicy.Setting> appliedResourceSettings = Collections.emptySet();
+    private volatile CheckpointJournal journal;
 
     Synchronization(Process process, SynchronizationResult result) {
+        this(process, result, null);
+    }
+
+    /**
+     * Creates a synchronization.
+     *
+     * @param process the rclone process, null if the synchronization is not backed by a single process
+     * @param result the result to update
+     * @param fileEventPublisher a file event publisher shared with other synchronizations, null to use a new one.
+     * A shared publisher is not completed by this synchronization.
+     */
+    Synchronization(Process process, SynchronizationResult result, DemandPublisher<FileEvent> fileEventPublisher) {
         this.process = process;
         this.result = result;
+        this.ownsFileEventPublisher = fileEventPublisher == null;
+        this.fileEventPublisher = ownsFileEventPublisher ? new DemandPublisher<>(false) : fileEventPublisher;
     }
 
     /**
@@ -33,14 +64,190 @@ public class Synchronization {
         return this.result;
     }
 
+    /**
+     * Sets the thread that reads the process output.
+     *
+     * @param outputReader the thread that reads the process output
+     */
+    void setOutputReader(Thread outputReader) {
+        this.outputReader = outputReader;
+    }
+
+    /**
+     * Gets a publisher of the progress ticks of this synchronization.
+     * <br>A subscriber without outstanding demand does not receive the intermediate ticks: it receives the latest
+     * one as soon as it requests an item. Subscribers that subscribe late immediately receive the latest tick, if any.
+     * The publisher completes when the rclone output ends.
+     *
+     * @return a publisher that supports multiple subscribers
+     */
+    public Flow.Publisher<Progress> progressPublisher() {
+        return progressPublisher;
+    }
+
+    /**
+     * Gets a publisher of the files copied, replaced or deleted by this synchronization.
+     * <br>Events that occur while a subscriber has no outstanding demand are not delivered to this subscriber.
+     * The publisher completes when the rclone output ends.
+     *
+     * @return a publisher that supports multiple subscribers
+     */
+    public Flow.Publisher<FileEvent> fileEventPublisher() {
+        return fileEventPublisher;
+    }
+
+    /**
+     * Gets a publisher of the completion of this synchronization.
+     * <br>It publishes the final result, including the exit code, when the rclone process ends, then completes.
+     * Subscribers that subscribe after the end of the process receive the final result too.
+     *
+     * @return a publisher that supports multiple subscribers
+     */
+    public Flow.Publisher<SynchronizationResult> completionPublisher() {
+        return completionPublisher;
+    }
+
+    DemandPublisher<Progress> progressSink() {
+        return progressPublisher;
+    }
+
+    DemandPublisher<FileEvent> fileEventSink() {
+        return fileEventPublisher;
+    }
+
+    /**
+     * Gets the journal where the completed files are recorded.
+     *
+     * @return a journal, or null if the completed files are not recorded
+     */
+    CheckpointJournal journal() {
+        return journal;
+    }
+
+    /**
+     * Sets the journal where the completed files are recorded.
+     *
+     * @param journal a journal, or null to stop recording the completed files
+     */
+    void setJournal(CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Gets the tracker of the file transfers.
+     * <br>It is created on first call, by the thread that reads the process output.
+     *
+     * @return a tracker that records the transfers in the result of this synchronization
+     */
+    TransferTracker transferTracker() {
+        if (transferTracker == null) {
+            transferTracker = new TransferTracker(result);
+        }
+        return transferTracker;
+    }
+
+    /**
+     * Adds an action that is executed when the process ends.
+     * <br>If the process already ended, the action is executed immediately.
+     *
+     * @param action the action
+     */
+    void addCompletionAction(Runnable action) {
+        synchronized (completionActions) {
+            if (!actionsRun) {
+                completionActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    private void runCompletionActions() {
+        synchronized (completionActions) {
+            actionsRun = true;
+        }
+        completionActions.forEach(Runnable::run);
+    }
+
+    /**
+     * Completes the publishers once the process output is fully processed.
+     * <br>This method waits for the end of the process in order to publish its exit code.
+     *
+     * @param outputError the error that occurred while reading the process output, or null if there was no error
+     */
+    void complete(Throwable outputError) {
+        completeOutput(outputError);
+        try {
+            this.process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runCompletionActions();
+            completionPublisher.completeExceptionally(e);
+            return;
+        }
+        this.result.setExitCode(this.process.exitValue());
+        publishResult();
+    }
+
+    /**
+     * Completes the progress and file event publishers.
+     *
+     * @param outputError the error that occurred while reading the output, or null if there was no error
+     */
+    void completeOutput(Throwable outputError) {
+        if (outputError == null) {
+            progressPublisher.complete();
+            if (ownsFileEventPublisher) {
+                fileEventPublisher.complete();
+            }
+        } else {
+            progressPublisher.completeExceptionally(outputError);
+            if (ownsFileEventPublisher) {
+                fileEventPublisher.completeExceptionally(outputError);
+            }
+        }
+    }
+
+    /**
+     * Executes the completion actions, then publishes the final result on the completion publisher.
+     */
+    void publishResult() {
+        runCompletionActions();
+        completionPublisher.submit(result());
+        completionPublisher.complete();
+    }
+
+    /**
+     * Gets the resource policy settings that took effect on the rclone process.
+     * <br>They are read back from the process just after its launch.
+     *
+     * @return an unmodifiable set, empty if no {@link ResourcePolicy} was set or if it could not be applied on this host
+     * @see RcloneSync#withResourcePolicy(ResourcePolicy)
+     */
+    public Set<ResourcePolicy.Setting> appliedResourceSettings() {
+        return this.appliedResourceSettings;
+    }
+
+    /**
+     * Sets the resource policy settings that were applied to the rclone process.
+     *
+     * @param settings the applied settings
+     */
+    void setAppliedResourceSettings(Set<ResourcePolicy.Setting> settings) {
+        this.appliedResourceSettings = settings.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(settings));
+    }
+
     /**
      * Waits for the synchronization to complete.
-     * This method blocks until the rclone process terminates.
+     * This method blocks until the rclone process terminates and its whole output is processed.
      *
      * @throws InterruptedException if the current thread is interrupted while waiting
      */
     public void waitFor() throws InterruptedException {
         this.process.waitFor();
+        if (this.outputReader != null) {
+            this.outputReader.join();
+        }
         this.result.setExitCode(this.process.exitValue());
     }
 
@@ -51,7 +258,9 @@ public class Synchronization {
      */
     public void cancel() {
         this.cancelled = true;
-        this.process.destroy();
+        if (this.process != null) {
+            this.process.destroy();
+        }
     }
 
     /**
@@ -1,14 +1,29 @@
 package com.fathzer.rclonesync;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Represents the result of a synchronization operation.
  * This class tracks various statistics about the files processed during the sync.
  */
 public class SynchronizationResult {
+    /** The rclone exit code when the <code>--max-duration</code> limit is reached */
+    public static final int MAX_DURATION_EXIT_CODE = 10;
+
     private int exitCode;
     private int deleted;
     private int copied;
     private int replaced;
+    private int skipped;
+    private volatile int deferredFiles;
+    private volatile long deferredBytes;
+    private final Map<String, FileFailure> failures = new LinkedHashMap<>();
+    private volatile long bandwidthLimit;
+    private final Histogram transferDurations = new Histogram();
+    private final Histogram fileSizes = new Histogram();
+    private final Histogram throughputs = new Histogram();
 
     SynchronizationResult() {
     }
@@ -31,6 +46,81 @@ public class SynchronizationResult {
     	this.exitCode = exitCode;
     }
 
+    /**
+     * Gets the files that failed to synchronize.
+     * <br>A file that failed during an attempt of rclone, then succeeded during a next one (see rclone's
+     * <code>--retries</code> option) is not reported.
+     *
+     * @return an unmodifiable snapshot of the failures, in the order they occurred
+     * @see RcloneSync#retryFailed(SynchronizationResult, RetryPolicy)
+     */
+    public synchronized List<FileFailure> failures() {
+        return List.copyOf(failures.values());
+    }
+
+    synchronized void addFailure(FileFailure failure) {
+        // The last error of a file is the most relevant one
+        failures.remove(failure.path());
+        failures.put(failure.path(), failure);
+    }
+
+    synchronized void removeFailure(String path) {
+        failures.remove(path);
+    }
+
+    synchronized boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    /**
+     * Checks whether the synchronization was stopped because its time budget was exhausted.
+     *
+     * @return true if rclone stopped because of its maximum duration
+     * @see RcloneSync#withTimeBudget(java.time.Duration, RcloneSync.Order)
+     */
+    public boolean isTimeBudgetExhausted() {
+        return exitCode == MAX_DURATION_EXIT_CODE;
+    }
+
+    /**
+     * Gets the number of files that remained to transfer, according to the last statistics of rclone.
+     * <br>Once the synchronization has ended, it is the number of files that were deferred to the next run,
+     * typically because the time budget was exhausted.
+     *
+     * @return a number of files
+     */
+    public int deferredFiles() {
+        return deferredFiles;
+    }
+
+    /**
+     * Sets the number of files that remain to transfer.
+     *
+     * @param deferredFiles the number of files reported by the last statistics of rclone
+     */
+    void setDeferredFiles(int deferredFiles) {
+        this.deferredFiles = deferredFiles;
+    }
+
+    /**
+     * Gets the number of bytes that remained to transfer, according to the last statistics of rclone.
+     *
+     * @return a number of bytes
+     * @see #deferredFiles()
+     */
+    public long deferredBytes() {
+        return deferredBytes;
+    }
+
+    /**
+     * Sets the number of bytes that remain to transfer.
+     *
+     * @param deferredBytes the number of bytes reported by the last statistics of rclone
+     */
+    void setDeferredBytes(long deferredBytes) {
+        this.deferredBytes = deferredBytes;
+    }
+
     /**
      * Gets the number of files that were deleted during the sync.
      *
@@ -79,6 +169,114 @@ public class SynchronizationResult {
         this.replaced++;
     }
 
+    /**
+     * Gets the number of files that were skipped because a checkpoint journal records them as completed.
+     *
+     * @return the number of skipped files, 0 if the synchronization was not resumed
+     * @see RcloneSync#withCheckpointJournal(java.nio.file.Path)
+     */
+    public int skipped() {
+        return skipped;
+    }
+
+    /**
+     * Sets the number of files that were skipped because a checkpoint journal records them as completed.
+     *
+     * @param skipped the number of skipped files
+     */
+    void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    /**
+     * Gets the current bandwidth limit of the synchronization.
+     *
+     * @return a number of bytes per second, 0 if there's no limit
+     * @see RcloneSync#withBandwidthBudget(BandwidthBudget, int)
+     */
+    public long bandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * Sets the current bandwidth limit of the synchronization.
+     *
+     * @param bandwidthLimit a number of bytes per second, 0 if there's no limit
+     */
+    void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
+    /**
+     * Gets the durations of the file transfers.
+     * <br>The duration of a file that is transferred faster than the statistics interval of rclone (1 second) is
+     * approximated by an upper bound.
+     *
+     * @return a snapshot of the histogram of the durations in milliseconds
+     */
+    public Histogram transferDurations() {
+        return transferDurations.snapshot();
+    }
+
+    /**
+     * Gets the sizes of the transferred files.
+     * <br>Only the sizes of the files that appear in the statistics of rclone, which are the ones that are transferred
+     * slower than the statistics interval, are known.
+     *
+     * @return a snapshot of the histogram of the sizes in bytes
+     */
+    public Histogram fileSizes() {
+        return fileSizes.snapshot();
+    }
+
+    /**
+     * Gets the throughputs of the file transfers.
+     * <br>As for {@link #fileSizes()}, only the throughputs of the files that appear in the statistics of rclone are known.
+     *
+     * @return a snapshot of the histogram of the throughputs in bytes per second
+     */
+    public Histogram throughputs() {
+        return throughputs.snapshot();
+    }
+
+    /**
+     * Records a file transfer.
+     *
+     * @param durationMillis the duration of the transfer in milliseconds
+     * @param size the size of the file in bytes, -1 if it is unknown
+     */
+    void recordTransfer(long durationMillis, long size) {
+        transferDurations.record(durationMillis);
+        if (size >= 0) {
+            fileSizes.record(size);
+            if (durationMillis > 0) {
+                throughputs.record((long) (size * 1000.0 / durationMillis));
+            }
+        }
+    }
+
+    /**
+     * Adds the file counts, the failures and the transfer histograms of another result to this one.
+     * <br>The exit code of this result is replaced by the other one if it is zero.
+     *
+     * @param other the result to add
+     */
+    void add(SynchronizationResult other) {
+        if (this.exitCode == 0) {
+            this.exitCode = other.exitCode;
+        }
+        this.deleted += other.deleted;
+        this.copied += other.copied;
+        this.replaced += other.replaced;
+        this.skipped += other.skipped;
+        this.deferredFiles += other.deferredFiles;
+        this.deferredBytes += other.deferredBytes;
+        other.failures().forEach(this::addFailure);
+        this.transferDurations.add(other.transferDurations);
+        this.fileSizes.add(other.fileSizes);
+        this.throughputs.add(other.throughputs);
+    }
+
     /**
      * Returns a string representation of the synchronization result.
      *
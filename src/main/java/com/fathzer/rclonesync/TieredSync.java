@@ -0,0 +1,185 @@
+package com.fathzer.rclonesync;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A class that synchronizes a source and a destination with two lanes tuned for different file sizes.
+ * <br>The settings that make small files fast (many transfers and checkers) are bad for huge files, and conversely.
+ * This class runs two rclone copies at the same time: a small-file lane (files up to a size threshold, with many
+ * transfers) and a large-file lane (files above the threshold, with few transfers split in multiple streams).
+ * <br>Destination files that are not in the source are deleted once, by a final standard sync that runs only if
+ * both lanes succeeded. This final pass checks the files again, but has nothing left to transfer.
+ * <br>The progress of the lanes, their results and their file events are merged in a single {@link Synchronization}.
+ */
+public class TieredSync {
+    private final String source;
+    private final String destination;
+    private long threshold = 64L * 1024 * 1024;
+    private int smallFileTransfers = 32;
+    private int smallFileCheckers = 32;
+    private int largeFileTransfers = 4;
+    private int multiThreadStreams = 8;
+    private Consumer<RcloneSync> settings = sync -> {};
+    private Consumer<Progress> eventConsumer = event -> {};
+    private Consumer<IOException> exceptionConsumer = exception ->
+        Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Error while running tiered sync", exception);
+
+    /**
+     * Creates a new TieredSync instance with the specified source and destination paths.
+     *
+     * @param source The source path for the sync operation
+     * @param destination The destination path for the sync operation
+     * @throws NullPointerException if either source or destination is null
+     */
+    public TieredSync(String source, String destination) {
+        if (source == null || destination == null) {
+            throw new NullPointerException("source and destination must not be null");
+        }
+        this.source = source;
+        this.destination = destination;
+    }
+
+    /**
+     * Sets the size that separates small files from large files.
+     *
+     * @param bytes the size in bytes of the largest small file (default: 64 MiB)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if bytes is negative
+     */
+    public TieredSync withThreshold(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative");
+        }
+        this.threshold = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the settings of the small-file lane.
+     *
+     * @param transfers the number of parallel transfers (default: 32)
+     * @param checkers the number of parallel checkers (default: 32)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if an argument is not positive
+     */
+    public TieredSync withSmallFileLane(int transfers, int checkers) {
+        if (transfers <= 0 || checkers <= 0) {
+            throw new IllegalArgumentException("transfers and checkers must be positive");
+        }
+        this.smallFileTransfers = transfers;
+        this.smallFileCheckers = checkers;
+        return this;
+    }
+
+    /**
+     * Sets the settings of the large-file lane.
+     *
+     * @param transfers the number of parallel transfers (default: 4)
+     * @param multiThreadStreams the number of streams used to transfer each file (default: 8)
+     * @return this instance for method chaining
+     * @throws IllegalArgumentException if an argument is not positive
+     */
+    public TieredSync withLargeFileLane(int transfers, int multiThreadStreams) {
+        if (transfers <= 0 || multiThreadStreams <= 0) {
+            throw new IllegalArgumentException("transfers and multiThreadStreams must be positive");
+        }
+        this.largeFileTransfers = transfers;
+        this.multiThreadStreams = multiThreadStreams;
+        return this;
+    }
+
+    /**
+     * Sets the settings applied to both lanes and to the final sync.
+     * <br>The event consumer of the {@link RcloneSync} is replaced by the one passed to {@link #withEventConsumer(Consumer)}.
+     * <br>If a {@link RcloneSync#withCheckpointJournal(Path) checkpoint journal} is set, each lane and the
+     * final sync get their own journal, whose name is the one of the journal followed by <code>.small</code>,
+     * <code>.large</code> or <code>.final</code>. So a lane that succeeds doesn't delete the journal of the other one.
+     *
+     * @param settings a consumer that configures an {@link RcloneSync} (default: no settings)
+     * @return this instance for method chaining
+     * @throws NullPointerException if settings is null
+     */
+    public TieredSync withSettings(Consumer<RcloneSync> settings) {
+        if (settings == null) {
+            throw new NullPointerException("settings must not be null");
+        }
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * Sets a consumer to receive the merged progress of the running lanes.
+     *
+     * @param eventConsumer the consumer to receive progress updates (default: empty consumer)
+     * @return this instance for method chaining
+     * @throws NullPointerException if eventConsumer is null
+     */
+    public TieredSync withEventConsumer(Consumer<Progress> eventConsumer) {
+        if (eventConsumer == null) {
+            throw new NullPointerException("eventConsumer must not be null");
+        }
+        this.eventConsumer = eventConsumer;
+        return this;
+    }
+
+    /**
+     * Sets a consumer to handle IOExceptions that occur when a lane is started.
+     * If not set, exceptions will be logged using java.util.logging.
+     *
+     * @param exceptionConsumer the consumer to handle IOExceptions
+     * @return this instance for method chaining
+     * @throws NullPointerException if exceptionConsumer is null
+     */
+    public TieredSync withExceptionConsumer(Consumer<IOException> exceptionConsumer) {
+        if (exceptionConsumer == null) {
+            throw new NullPointerException("exceptionConsumer must not be null");
+        }
+        this.exceptionConsumer = exceptionConsumer;
+        return this;
+    }
+
+    /**
+     * Starts the lanes asynchronously.
+     *
+     * @return a {@link Synchronization} object that can be used to monitor and control the whole operation
+     */
+    public Synchronization run() {
+        final RcloneSync smallFiles = createSync("small").withOperation("copy").withArguments(
+            "--max-size", threshold + "B",
+            "--transfers", Integer.toString(smallFileTransfers),
+            "--checkers", Integer.toString(smallFileCheckers));
+        final RcloneSync largeFiles = createSync("large").withOperation("copy").withArguments(
+            "--min-size", (threshold + 1) + "B",
+            "--transfers", Integer.toString(largeFileTransfers),
+            "--multi-thread-streams", Integer.toString(multiThreadStreams));
+        final CompositeSynchronization synchronization = new CompositeSynchronization(eventConsumer, exceptionConsumer);
+        synchronization.start(List.of(List.of(smallFiles, largeFiles), List.of(createSync("final"))));
+        return synchronization;
+    }
+
+    private RcloneSync createSync(String lane) {
+        final RcloneSync sync = newSync(source, destination);
+        settings.accept(sync);
+        final Path journal = sync.checkpointJournal();
+        if (journal != null) {
+            sync.withCheckpointJournal(journal.resolveSibling(journal.getFileName() + "." + lane));
+        }
+        return sync;
+    }
+
+    /**
+     * Creates a new synchronization.
+     *
+     * @param source the source
+     * @param destination the destination
+     * @return a new {@link RcloneSync} instance
+     */
+    RcloneSync newSync(String source, String destination) {
+        return new RcloneSync(source, destination);
+    }
+}
@@ -0,0 +1,191 @@
+package com.fathzer.rclonesync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the transfers of a synchronization from the rclone log, and records them in the histograms of its result.
+ * <br>A transfer starts when its file first appears in the "Transferring:" section of rclone statistics, which also
+ * gives the file size, and ends with the "Copied" line of the file. The times are the ones of the rclone log lines
+ * (<code>YYYY/MM/DD HH:MM:SS</code>, followed by a fraction of second as {@link RcloneSync} runs rclone with
+ * <code>--log-format date,time,microseconds</code>).
+ * <br>A file that is transferred between two statistics blocks never appears in them, its size is unknown. Its duration
+ * is recorded as the time elapsed since the previous statistics block, which is an upper bound of its actual duration.
+ * <br>This class is not thread safe, it is used by the thread that reads the rclone output.
+ */
+final class TransferTracker {
+    /** The length of the <code>YYYY/MM/DD HH:MM:SS</code> prefix */
+    private static final int TIMESTAMP_LENGTH = 19;
+    /** The prefix of the transfers in the statistics (e.g. " * dir/file.bin: 45% /20.500Mi, 5.100Mi/s, 2s") */
+    static final String TRANSFER_PREFIX = " * ";
+    private static final String PATH_SEPARATOR = ": ";
+    private static final String SIZE_PREFIX = "% /";
+
+    private final SynchronizationResult result;
+    private final Map<String, Transfer> running = new HashMap<>();
+    /** The number of statistics blocks */
+    private long block;
+    /** The time of the last log line, -1 if no line had a timestamp */
+    private long now = -1;
+    /** The time of the last statistics block, or of the first log line */
+    private long origin = -1;
+
+    private static class Transfer {
+        private final long start;
+        private final long size;
+        /** The last statistics block where the transfer appeared */
+        private long block;
+
+        private Transfer(long start, long size, long block) {
+            this.start = start;
+            this.size = size;
+            this.block = block;
+        }
+    }
+
+    TransferTracker(SynchronizationResult result) {
+        this.result = result;
+    }
+
+    /**
+     * Updates the current time with the timestamp of a log line.
+     *
+     * @param line a line of the rclone output
+     */
+    void onLine(String line) {
+        final long time = parseTimestamp(line);
+        if (time >= 0) {
+            now = time;
+            if (origin < 0) {
+                origin = time;
+            }
+        }
+    }
+
+    /**
+     * Notifies the start of a statistics block.
+     * <br>The transfers that did not appear in the previous block are forgotten: they ended without a "Copied" line
+     * (typically because they failed).
+     */
+    void onStats() {
+        origin = now;
+        if (!running.isEmpty()) {
+            running.values().removeIf(transfer -> transfer.block < block);
+        }
+        block++;
+    }
+
+    /**
+     * Processes a transfer line of the statistics.
+     *
+     * @param line a line that starts with {@link #TRANSFER_PREFIX}
+     * @return true if the line is a transfer line
+     */
+    boolean onTransfer(String line) {
+        final int separator = line.lastIndexOf(PATH_SEPARATOR);
+        if (separator < 0 || !line.startsWith(SIZE_PREFIX, line.indexOf('%', separator))) {
+            return false;
+        }
+        if (now >= 0) {
+            final String path = line.substring(TRANSFER_PREFIX.length(), separator).trim();
+            final Transfer transfer = running.get(path);
+            if (transfer == null) {
+                running.put(path, new Transfer(now, size(line, line.indexOf(SIZE_PREFIX, separator) + SIZE_PREFIX.length()), block));
+            } else {
+                transfer.block = block;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Processes the end of a transfer.
+     *
+     * @param line the "Copied" line of the file
+     * @param suffix the suffix that follows the path in the line
+     */
+    void onCopied(String line, String suffix) {
+        if (now < 0) {
+            return;
+        }
+        // Don't extract the path if no transfer is known
+        final Transfer transfer = running.isEmpty() ? null : running.remove(RcloneSync.path(line, suffix));
+        if (transfer == null) {
+            result.recordTransfer(now - origin, -1);
+        } else {
+            result.recordTransfer(now - transfer.start, transfer.size);
+        }
+    }
+
+    private static long size(String line, int start) {
+        final int end = line.indexOf(',', start);
+        final String size = (end < 0 ? line.substring(start) : line.substring(start, end)).trim();
+        try {
+            return Progress.decode(size.endsWith("B") ? size : size + "B");
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the timestamp that starts a log line.
+     * <br>As only the differences between timestamps matter, the local time of the line is converted as if it was UTC.
+     *
+     * @param line a line of the rclone output
+     * @return the timestamp in milliseconds, -1 if the line does not start with a timestamp
+     */
+    static long parseTimestamp(String line) {
+        if (line.length() < TIMESTAMP_LENGTH || line.charAt(4) != '/' || line.charAt(7) != '/' || line.charAt(10) != ' '
+                || line.charAt(13) != ':' || line.charAt(16) != ':') {
+            return -1;
+        }
+        final int year = digits(line, 0, 4);
+        final int month = digits(line, 5, 2);
+        final int day = digits(line, 8, 2);
+        final int hour = digits(line, 11, 2);
+        final int minute = digits(line, 14, 2);
+        final int second = digits(line, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        long millis = ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+        if (line.length() > TIMESTAMP_LENGTH + 1 && line.charAt(TIMESTAMP_LENGTH) == '.') {
+            // Fraction of second, only milliseconds are kept
+            int scale = 100;
+            for (int i = TIMESTAMP_LENGTH + 1; i < line.length() && scale > 0; i++) {
+                final int digit = line.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+        return millis;
+    }
+
+    private static int digits(String line, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            final int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Computes the number of days since 1970-01-01 of a date of the proleptic Gregorian calendar.
+     * <br>This avoids the allocation of a {@link java.time.LocalDate} for each line.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(y, 400);
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
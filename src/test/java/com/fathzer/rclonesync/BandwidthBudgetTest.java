@@ -0,0 +1,171 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+class BandwidthBudgetTest {
+    private final AtomicReference<LocalTime> now = new AtomicReference<>(LocalTime.NOON);
+
+    private BandwidthBudget budget(long bytesPerSecond) {
+        return new BandwidthBudget(bytesPerSecond, now::get, Runnable::run);
+    }
+
+    @Test
+    void testWeightedShares() {
+        final BandwidthBudget budget = budget(1200);
+        final List<Long> applied1 = new ArrayList<>();
+        final List<Long> applied2 = new ArrayList<>();
+
+        final BandwidthBudget.Share share1 = budget.register(1, applied1::add);
+        assertEquals(1200, share1.limit());
+        assertTrue(applied1.isEmpty(), "Initial limit should not be applied");
+
+        final BandwidthBudget.Share share2 = budget.register(2, applied2::add);
+        assertEquals(400, share1.limit());
+        assertEquals(800, share2.limit());
+        assertEquals(List.of(400L), applied1);
+        assertTrue(applied2.isEmpty());
+
+        budget.unregister(share1);
+        assertEquals(1200, share2.limit());
+        assertEquals(List.of(1200L), applied2);
+    }
+
+    @Test
+    void testSchedule() {
+        final BandwidthBudget budget = budget(1000)
+            .withSchedule(LocalTime.of(8, 0), 100)
+            .withSchedule(LocalTime.of(20, 0), 0);
+        assertEquals(100, budget.total());
+        now.set(LocalTime.of(7, 0));
+        assertEquals(0, budget.total(), "Last entry of the previous day should apply");
+
+        final List<Long> applied = new ArrayList<>();
+        final BandwidthBudget.Share share = budget.register(1, applied::add);
+        assertEquals(0, share.limit());
+        now.set(LocalTime.of(9, 0));
+        budget.rebalance();
+        assertEquals(100, share.limit());
+        assertEquals(List.of(100L), applied);
+        assertEquals(1000, budget(1000).total());
+    }
+
+    @Test
+    void testFailedApplyIsRetried() {
+        final BandwidthBudget budget = budget(1000);
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final List<Long> applied = new ArrayList<>();
+        budget.register(1, limit -> {
+            if (fail.get()) {
+                throw new IllegalStateException("Not started");
+            }
+            applied.add(limit);
+        });
+        budget.register(1, limit -> {});
+        assertTrue(applied.isEmpty());
+        fail.set(false);
+        budget.rebalance();
+        assertEquals(List.of(500L), applied);
+        budget.rebalance();
+        assertEquals(List.of(500L), applied, "Limit should not be applied twice");
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BandwidthBudget(-1));
+        final BandwidthBudget budget = new BandwidthBudget(0);
+        assertThrows(NullPointerException.class, () -> budget.withSchedule(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> budget.withSchedule(LocalTime.MIDNIGHT, -1));
+        assertThrows(IllegalArgumentException.class, () -> new RcloneSync("a", "b").withBandwidthBudget(budget, 0));
+    }
+
+    @Test
+    void testRun() throws Exception {
+        final BandwidthBudget budget = budget(2048);
+        final List<String> command = new ArrayList<>();
+        final List<Map<String, String>> environments = new ArrayList<>();
+        final List<Progress> progresses = new ArrayList<>();
+        final RcloneSync sync = new RcloneSync("a", "b") {
+            @Override
+            Process buildProcess(List<String> cmd, Map<String, String> environment) {
+                command.addAll(cmd);
+                environments.add(environment);
+                return new TestProcess("Transferred:  0 B / 0 B, -, 0 B/s, ETA -\nChecks:  0 / 0, -, Listed 11\n", 0);
+            }
+        };
+        final Synchronization synchronization = sync.withBandwidthBudget(budget, 1).withEventConsumer(progresses::add).run();
+        synchronization.waitFor();
+
+        assertTrue(command.contains("--rc"));
+        // The credentials are not visible in the command line
+        assertFalse(command.contains("--rc-pass"));
+        assertEquals(Set.of("RCLONE_RC_USER", "RCLONE_RC_PASS"), environments.get(0).keySet());
+        assertEquals("2048B", command.get(command.indexOf("--bwlimit") + 1));
+        assertEquals(2048, progresses.get(0).bandwidthLimit());
+        // The share is released when the process ends
+        assertEquals(2048, budget.register(1, limit -> {}).limit());
+    }
+
+    @Test
+    void testRun_RetriesOnAnotherPort() throws Exception {
+        final List<List<String>> commands = new ArrayList<>();
+        final RcloneSync sync = new RcloneSync("a", "b") {
+            @Override
+            Process buildProcess(List<String> cmd, Map<String, String> environment) {
+                commands.add(new ArrayList<>(cmd));
+                // The first process fails to listen on its port
+                return commands.size() == 1 ? new TestProcess("Failed to start remote control: bind: address already in use\n", 1)
+                    : new TestProcess("", 0);
+            }
+        };
+        final Synchronization synchronization = sync.withBandwidthBudget(budget(2048), 1).run();
+        synchronization.waitFor();
+
+        assertEquals(2, commands.size());
+        final String address = commands.get(1).get(commands.get(1).indexOf("--rc-addr") + 1);
+        assertNotEquals(commands.get(0).get(commands.get(0).indexOf("--rc-addr") + 1), address);
+        assertEquals(0, synchronization.result().exitCode());
+    }
+
+    @Test
+    void testRemoteControlAuthentication() throws Exception {
+        final RemoteControl remoteControl = new RemoteControl();
+        final String user = remoteControl.environment().get("RCLONE_RC_USER");
+        final String password = remoteControl.environment().get("RCLONE_RC_PASS");
+        // Credentials are generated for each client
+        assertNotEquals(password, new RemoteControl().environment().get("RCLONE_RC_PASS"));
+        final String expected = "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+
+        final int port = Integer.parseInt(remoteControl.address().substring(remoteControl.address().indexOf(':') + 1));
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        final List<String> authorizations = new ArrayList<>();
+        server.createContext("/", exchange -> {
+            final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            authorizations.add(authorization);
+            exchange.sendResponseHeaders(expected.equals(authorization) ? 200 : 401, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            remoteControl.setBandwidthLimit(1024);
+        } finally {
+            server.stop(0);
+        }
+        assertEquals(List.of(expected), authorizations);
+    }
+}
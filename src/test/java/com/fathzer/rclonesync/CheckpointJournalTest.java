@@ -0,0 +1,128 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointJournalTest {
+    @TempDir
+    Path dir;
+
+    private static class TestSync extends RcloneSync {
+        private final String output;
+        private final int exitCode;
+        private List<String> command;
+        private List<String> remaining;
+
+        TestSync(String output, int exitCode) {
+            super("src", "dst");
+            this.output = output;
+            this.exitCode = exitCode;
+        }
+
+        @Override
+        Process buildProcess(List<String> cmd) throws IOException {
+            this.command = cmd;
+            final int index = cmd.indexOf("--files-from-raw");
+            if (index >= 0) {
+                remaining = Files.readAllLines(Path.of(cmd.get(index + 1)));
+            }
+            return new TestProcess(output, exitCode);
+        }
+
+        @Override
+        Process buildListingProcess(List<String> cmd, Path output) throws IOException {
+            Files.writeString(output, "a.txt\nb.txt\nc.txt\n");
+            return new TestProcess("", 0);
+        }
+    }
+
+    @Test
+    void testRecordAndRead() throws IOException {
+        final Path file = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(file)) {
+            journal.record("a.txt");
+            journal.record("dir/é.txt");
+        }
+        assertEquals(Set.of("a.txt", "dir/é.txt"), CheckpointJournal.read(file));
+
+        // A partially written line is ignored, and the next record starts on a new line
+        Files.writeString(file, "b.t", StandardOpenOption.APPEND);
+        assertEquals(Set.of("a.txt", "dir/é.txt"), CheckpointJournal.read(file));
+        try (CheckpointJournal journal = CheckpointJournal.open(file)) {
+            journal.record("c.txt");
+        }
+        assertEquals(Set.of("a.txt", "dir/é.txt", "b.t", "c.txt"), CheckpointJournal.read(file));
+    }
+
+    @Test
+    void testRecordWrittenImmediately() throws IOException {
+        final Path file = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(file)) {
+            journal.record("a.txt");
+            // The record is in the file even if no other record follows
+            assertEquals(Set.of("a.txt"), CheckpointJournal.read(file));
+        }
+    }
+
+    @Test
+    void testWriteRemaining() throws IOException {
+        final Path plan = Files.writeString(dir.resolve("plan"), "a.txt\nb.txt\nc.txt\n");
+        final Path remaining = dir.resolve("remaining");
+        assertEquals(2, CheckpointJournal.writeRemaining(plan, true, Set.of("a.txt", "c.txt", "deleted.txt"), remaining));
+        assertEquals(List.of("b.txt"), Files.readAllLines(remaining));
+
+        // Comments are file names in a raw plan
+        Files.writeString(plan, "#a.txt\n b.txt\n;c\n");
+        assertEquals(0, CheckpointJournal.writeRemaining(plan, true, Set.of("b.txt"), remaining));
+        assertEquals(List.of("#a.txt", " b.txt", ";c"), Files.readAllLines(remaining));
+        assertEquals(1, CheckpointJournal.writeRemaining(plan, false, Set.of("b.txt"), remaining));
+        assertEquals(List.of(), Files.readAllLines(remaining));
+    }
+
+    @Test
+    void testInterruptedThenResumed() throws Exception {
+        final Path journal = dir.resolve("journal");
+        final TestSync first = new TestSync("INFO  : a.txt: Copied (new)\nINFO  : old.txt: Deleted\n", 1);
+        final Synchronization interrupted = first.withCheckpointJournal(journal).run();
+        interrupted.waitFor();
+        assertFalse(first.command.contains("--files-from-raw"));
+        assertEquals(Set.of("a.txt", "old.txt"), CheckpointJournal.read(journal), "Journal should be kept after a failure");
+
+        final TestSync second = new TestSync("INFO  : b.txt: Copied (replaced existing)\n", 0);
+        final Synchronization resumed = second.withCheckpointJournal(journal).run();
+        resumed.waitFor();
+        assertEquals(List.of("b.txt", "c.txt"), second.remaining);
+        assertEquals(1, resumed.result().skipped());
+        assertEquals(1, resumed.result().replaced());
+        final Path remaining = Path.of(second.command.get(second.command.indexOf("--files-from-raw") + 1));
+        assertFalse(Files.exists(journal), "Journal should be deleted after a success");
+        assertFalse(Files.exists(remaining), "Remaining files list should be deleted");
+    }
+
+    @Test
+    void testResumedWithFilesFrom() throws Exception {
+        final Path journal = Files.writeString(dir.resolve("journal"), "a.txt\n");
+        final Path filesFrom = Files.writeString(dir.resolve("files"), "a.txt\nz.txt\n");
+        final TestSync sync = new TestSync("", 0);
+        sync.withFilesFrom(filesFrom.toString()).withCheckpointJournal(journal).run().waitFor();
+        assertEquals(List.of("z.txt"), sync.remaining);
+        assertFalse(sync.command.contains("--files-from"), "The files list should be replaced by the remaining list");
+        assertEquals(1, sync.command.stream().filter("--files-from-raw"::equals).count());
+
+        Files.writeString(journal, "#a.txt\n");
+        Files.writeString(filesFrom, "#a.txt\n#z.txt\n");
+        final TestSync raw = new TestSync("", 0);
+        raw.withFilesFromRaw(filesFrom.toString()).withCheckpointJournal(journal).run().waitFor();
+        assertEquals(List.of("#z.txt"), raw.remaining);
+        assertEquals(1, raw.command.stream().filter("--files-from-raw"::equals).count());
+    }
+}
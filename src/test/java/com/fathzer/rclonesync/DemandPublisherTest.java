@@ -0,0 +1,119 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.Test;
+
+class DemandPublisherTest {
+    static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        private final long initialRequest;
+        final List<T> items = new CopyOnWriteArrayList<>();
+        Flow.Subscription subscription;
+        volatile boolean completed;
+        volatile Throwable error;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            assertFalse(completed);
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+    }
+
+    @Test
+    void testDropWithoutDemand() {
+        final DemandPublisher<Integer> publisher = new DemandPublisher<>(false);
+        assertFalse(publisher.hasDemand());
+        final RecordingSubscriber<Integer> slow = new RecordingSubscriber<>(1);
+        final RecordingSubscriber<Integer> fast = new RecordingSubscriber<>(Long.MAX_VALUE);
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        assertTrue(publisher.hasDemand());
+
+        publisher.submit(1);
+        publisher.submit(2);
+        slow.subscription.request(1);
+        publisher.submit(3);
+        publisher.complete();
+
+        assertEquals(List.of(1, 3), slow.items);
+        assertEquals(List.of(1, 2, 3), fast.items);
+        assertTrue(slow.completed);
+        assertTrue(fast.completed);
+        assertFalse(publisher.hasDemand());
+    }
+
+    @Test
+    void testLatest() {
+        final DemandPublisher<Integer> publisher = new DemandPublisher<>(true);
+        final RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        publisher.submit(1);
+        publisher.submit(2);
+        assertTrue(subscriber.items.isEmpty());
+        subscriber.subscription.request(1);
+        assertEquals(List.of(2), subscriber.items);
+
+        // The last item is kept until it is requested, then the publisher completes
+        publisher.submit(3);
+        publisher.complete();
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(5);
+        assertEquals(List.of(2, 3), subscriber.items);
+        assertTrue(subscriber.completed);
+
+        // Late subscribers receive the last item
+        final RecordingSubscriber<Integer> late = new RecordingSubscriber<>(1);
+        publisher.subscribe(late);
+        assertEquals(List.of(3), late.items);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    void testCancelAndErrors() {
+        final DemandPublisher<Integer> publisher = new DemandPublisher<>(false);
+        final RecordingSubscriber<Integer> cancelled = new RecordingSubscriber<>(10);
+        final RecordingSubscriber<Integer> invalid = new RecordingSubscriber<>(0);
+        final RecordingSubscriber<Integer> failed = new RecordingSubscriber<>(10);
+        publisher.subscribe(cancelled);
+        publisher.subscribe(invalid);
+        publisher.subscribe(failed);
+
+        cancelled.subscription.cancel();
+        invalid.subscription.request(0);
+        publisher.submit(1);
+        final IllegalStateException error = new IllegalStateException();
+        publisher.completeExceptionally(error);
+
+        assertTrue(cancelled.items.isEmpty());
+        assertFalse(cancelled.completed);
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+        assertEquals(List.of(1), failed.items);
+        assertSame(error, failed.error);
+    }
+}
@@ -0,0 +1,215 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiffEngineTest {
+    private static final DiffSync.Rule RULE = DiffSync.Rule.sizeAndModTime(Duration.ofSeconds(1));
+
+    @TempDir
+    Path dir;
+
+    private record Entry(String path, long size, long modTime) {}
+
+    /** An lsjson output generated on the fly, so that huge listings do not have to be stored in memory */
+    private static class LsJsonStream extends InputStream {
+        private final long count;
+        private final LongFunction<String> entries;
+        private byte[] current = "[\n".getBytes(StandardCharsets.UTF_8);
+        private int position;
+        private long index;
+
+        private LsJsonStream(long count, LongFunction<String> entries) {
+            this.count = count;
+            this.entries = entries;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == current.length) {
+                if (index > count) {
+                    return -1;
+                }
+                final String line = index == count ? "]\n" : entries.apply(index) + (index + 1 < count ? ",\n" : "\n");
+                current = line.getBytes(StandardCharsets.UTF_8);
+                position = 0;
+                index++;
+            }
+            final int read = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, read);
+            position += read;
+            return read;
+        }
+    }
+
+    private static String json(String path, long size, String modTime) {
+        return "{\"Path\":\"" + path + "\",\"Name\":\"n\",\"Size\":" + size + ",\"ModTime\":\"" + modTime + "\",\"IsDir\":false}";
+    }
+
+    private static DiffEngine.Listing listing(String json) {
+        return consumer -> new LsJsonParser(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).parse(consumer);
+    }
+
+    @Test
+    void testParse() throws IOException {
+        final String json = "[\n"
+            + "{\"Path\":\"dir\",\"Name\":\"dir\",\"Size\":-1,\"ModTime\":\"2017-05-31T16:15:57Z\",\"IsDir\":true},\n"
+            + "{\"Path\":\"dir/a \\\"b\\\"\\u00e9\\ud83d\\ude00.txt\",\"Name\":\"x\",\"Size\":6,\"MimeType\":\"text/plain\","
+            + "\"ModTime\":\"2017-05-31T16:15:57.034468261+01:00\",\"IsDir\":false,\"Hashes\":{\"md5\":\"x\",\"nested\":[1,{\"a\":null}]}},\n"
+            + "{ \"IsDir\" : false , \"ModTime\" : \"1970-01-01T00:00:01-00:30\" , \"Size\" : 0 , \"Path\" : \"é\" }\n"
+            + "]\n";
+        final List<Entry> entries = new ArrayList<>();
+        final long count = new LsJsonParser(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))
+            .parse((path, length, size, modTime) -> entries.add(new Entry(new String(path, 0, length, StandardCharsets.UTF_8), size, modTime)));
+        assertEquals(2, count);
+        assertEquals(new Entry("dir/a \"b\"é😀.txt", 6, 1496243757034L), entries.get(0));
+        assertEquals(new Entry("é", 0, 1000 + 1800 * 1000), entries.get(1));
+
+        assertEquals(0, new LsJsonParser(InputStream.nullInputStream()).parse((path, length, size, modTime) -> fail("No entry expected")));
+        final LsJsonParser invalid = new LsJsonParser(new ByteArrayInputStream("[{\"Path\":\"a".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IOException.class, () -> invalid.parse((path, length, size, modTime) -> fail("No entry expected")));
+        final LsJsonParser invalidDate = new LsJsonParser(new ByteArrayInputStream("[{\"Path\":\"a\",\"ModTime\":\"2024-13-01T00:00:00Z\"}]".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IOException.class, () -> invalidDate.parse((path, length, size, modTime) -> fail("No entry expected")));
+    }
+
+    @Test
+    void testParseTime() throws IOException {
+        for (String time : List.of("2024-02-29T23:59:59.999Z", "1969-12-31T23:00:00+01:00", "2100-03-01T00:00:00Z", "1600-01-01T00:00:00Z")) {
+            final long[] parsed = new long[1];
+            new LsJsonParser(new ByteArrayInputStream(("[" + json("a", 1, time) + "]").getBytes(StandardCharsets.UTF_8)))
+                .parse((path, length, size, modTime) -> parsed[0] = modTime);
+            assertEquals(OffsetDateTime.parse(time).toInstant().toEpochMilli(), parsed[0], time);
+        }
+    }
+
+    @Test
+    void testSortWithSpills() throws IOException {
+        final Random random = new Random(0);
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            paths.add("dir" + random.nextInt(100) + "/file" + random.nextInt());
+        }
+        try (ExternalSorter sorter = new ExternalSorter(dir, 64 * 1024)) {
+            for (int i = 0; i < paths.size(); i++) {
+                final byte[] bytes = paths.get(i).getBytes(StandardCharsets.UTF_8);
+                sorter.add(bytes, bytes.length, i, -i);
+            }
+            assertTrue(sorter.runs() > 1, "Entries should be spilled to disk");
+            final List<String> sorted = new ArrayList<>();
+            try (EntryCursor cursor = sorter.cursor()) {
+                while (cursor.next()) {
+                    sorted.add(cursor.path());
+                    assertEquals(cursor.path(), paths.get((int) cursor.size()));
+                    assertEquals(-cursor.size(), cursor.modTime());
+                }
+            }
+            paths.sort(null);
+            assertEquals(paths, sorted);
+        }
+    }
+
+    @Test
+    void testDiff() throws IOException {
+        final String source = "[" + String.join(",",
+            json("same.txt", 1, "2024-01-01T00:00:00Z"),
+            json("new.txt", 1, "2024-01-01T00:00:00Z"),
+            json("bigger.txt", 2, "2024-01-01T00:00:00Z"),
+            json("newer.txt", 1, "2024-01-01T00:00:02Z"),
+            json("close.txt", 1, "2024-01-01T00:00:00.900Z")) + "]";
+        final String destination = "[" + String.join(",",
+            json("close.txt", 1, "2024-01-01T00:00:00Z"),
+            json("old.txt", 1, "2024-01-01T00:00:00Z"),
+            json("newer.txt", 1, "2024-01-01T00:00:00Z"),
+            json("bigger.txt", 1, "2024-01-01T00:00:00Z"),
+            json("same.txt", 1, "2024-01-01T00:00:00Z")) + "]";
+        final ByteArrayOutputStream copies = new ByteArrayOutputStream();
+        final ByteArrayOutputStream replaces = new ByteArrayOutputStream();
+        final ByteArrayOutputStream deletes = new ByteArrayOutputStream();
+        final DiffSync.Stats stats = new DiffEngine(dir, 1024 * 1024, RULE).diff(listing(source), listing(destination), copies, replaces, deletes);
+        assertEquals(new DiffSync.Stats(5, 5, 1, 2, 1), stats);
+        assertEquals("new.txt\n", copies.toString(StandardCharsets.UTF_8));
+        assertEquals("bigger.txt\nnewer.txt\n", replaces.toString(StandardCharsets.UTF_8));
+        assertEquals("old.txt\n", deletes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testListingFailure() {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final DiffEngine.Listing failing = consumer -> {
+            throw new IOException("Unable to list");
+        };
+        final DiffEngine.Listing blocking = new DiffEngine.Listing() {
+            @Override
+            public void read(LsJsonParser.EntryConsumer consumer) throws IOException {
+                while (!cancelled.get()) {
+                    Thread.onSpinWait();
+                }
+                throw new IOException("Cancelled");
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.set(true);
+            }
+        };
+        final DiffEngine engine = new DiffEngine(dir, 1024 * 1024, RULE);
+        final OutputStream out = OutputStream.nullOutputStream();
+        final IOException e = assertThrows(IOException.class, () -> engine.diff(failing, blocking, out, out, out));
+        assertEquals("Unable to list", e.getMessage());
+        assertTrue(cancelled.get());
+        cancelled.set(false);
+        assertThrows(IOException.class, () -> engine.diff(blocking, failing, out, out, out));
+    }
+
+    @Test
+    @Tag("soak")
+    @SuppressWarnings("squid:S106")
+    void testBenchmark() throws IOException {
+        final long count = 10_000_000;
+        // Multipliers prime with count shuffle the listings
+        final LongFunction<String> source = i -> {
+            final long k = (i * 7919 + 13) % count;
+            return json("d" + k % 1000 + "/f" + k, k, "2024-01-01T00:00:00Z");
+        };
+        // 1% of the files are missing in the destination and replaced by extra files, 2% have a different size
+        final LongFunction<String> destination = i -> {
+            final long k = (i * 7907 + 17) % count;
+            if (k % 100 == 0) {
+                return json("x/f" + k, k, "2024-01-01T00:00:00Z");
+            }
+            return json("d" + k % 1000 + "/f" + k, k % 50 == 1 ? k + 1 : k, "2024-01-01T00:00:00Z");
+        };
+        final long start = System.nanoTime();
+        final DiffSync.Stats stats = new DiffEngine(dir, 64L * 1024 * 1024, RULE).diff(
+            consumer -> new LsJsonParser(new LsJsonStream(count, source)).parse(consumer),
+            consumer -> new LsJsonParser(new LsJsonStream(count, destination)).parse(consumer),
+            OutputStream.nullOutputStream(), OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        assertEquals(new DiffSync.Stats(count, count, count / 100, count / 50, count / 100), stats);
+        System.out.printf("Compared 2 x %d entries in %.1fs (%.0f entries/s)%n", count, seconds, 2 * count / seconds);
+    }
+}
@@ -0,0 +1,136 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiffSyncTest {
+    private static final String SOURCE = "[{\"Path\":\"a.txt\",\"Size\":1,\"ModTime\":\"2024-01-01T00:00:00Z\"},"
+        + "{\"Path\":\"b.txt\",\"Size\":2,\"ModTime\":\"2024-01-01T00:00:00Z\"}]";
+    private static final String DESTINATION = "[{\"Path\":\"b.txt\",\"Size\":1,\"ModTime\":\"2024-01-01T00:00:00Z\"},"
+        + "{\"Path\":\"c.txt\",\"Size\":1,\"ModTime\":\"2024-01-01T00:00:00Z\"}]";
+
+    private static final Map<String, String> OUTPUTS = Map.of(
+        "copy", "INFO  : a.txt: Copied (new)\n",
+        "replace", "INFO  : b.txt: Copied (replaced existing)\n",
+        "sync", "INFO  : c.txt: Deleted\n");
+
+    @TempDir
+    Path dir;
+
+    private static class TestDiffSync extends DiffSync {
+        private final Map<String, List<String>> commands = new ConcurrentHashMap<>();
+        private final Map<String, List<String>> filesFrom = new ConcurrentHashMap<>();
+        private final int destinationExitCode;
+        private String sourceListing = SOURCE;
+
+        TestDiffSync(int destinationExitCode) {
+            super("src", "dst");
+            this.destinationExitCode = destinationExitCode;
+        }
+
+        @Override
+        RcloneSync newSync(String source, String destination) {
+            return new RcloneSync(source, destination) {
+                @Override
+                Process buildProcess(List<String> cmd) throws IOException {
+                    final String operation = cmd.contains("--ignore-times") ? "replace" : cmd.get(1);
+                    commands.put(operation, cmd);
+                    filesFrom.put(operation, Files.readAllLines(Path.of(cmd.get(cmd.indexOf("--files-from-raw") + 1))));
+                    return new TestProcess(OUTPUTS.get(operation), 0);
+                }
+
+                @Override
+                Process buildStreamingListingProcess(List<String> cmd, Path errors) throws IOException {
+                    final String remote = cmd.contains("src") ? "src" : "dst";
+                    commands.put(remote, cmd);
+                    if (remote.equals("src")) {
+                        return new TestProcess(sourceListing, 0);
+                    }
+                    Files.writeString(errors, "directory not found");
+                    return new TestProcess(destinationExitCode == 0 ? DESTINATION : "", destinationExitCode);
+                }
+            };
+        }
+    }
+
+    @Test
+    void testRun() throws Exception {
+        final TestDiffSync diffSync = new TestDiffSync(0);
+        final Synchronization synchronization = diffSync.withWorkDirectory(dir).run();
+        synchronization.waitFor();
+
+        assertEquals(List.of("rclone", "lsjson", "-R", "--fast-list", "--files-only", "--no-mimetype", "src"), diffSync.commands.get("src"));
+        assertEquals(List.of("a.txt"), diffSync.filesFrom.get("copy"));
+        assertTrue(diffSync.commands.get("copy").contains("--no-check-dest"));
+        // The replaced files are checked in the destination, so that rclone reports them as replaced
+        assertEquals(List.of("b.txt"), diffSync.filesFrom.get("replace"));
+        assertFalse(diffSync.commands.get("replace").contains("--no-check-dest"));
+        assertEquals(List.of("c.txt"), diffSync.filesFrom.get("sync"));
+        final SynchronizationResult result = synchronization.result();
+        assertEquals(0, result.exitCode());
+        assertEquals(1, result.copied());
+        assertEquals(1, result.replaced());
+        assertEquals(1, result.deleted());
+    }
+
+    @Test
+    void testRun_WithCommentLikeNames() throws Exception {
+        final TestDiffSync diffSync = new TestDiffSync(0);
+        diffSync.sourceListing = "[{\"Path\":\"#notes.txt\",\"Size\":1,\"ModTime\":\"2024-01-01T00:00:00Z\"},"
+            + "{\"Path\":\";x\",\"Size\":1,\"ModTime\":\"2024-01-01T00:00:00Z\"}]";
+        diffSync.withWorkDirectory(dir).run().waitFor();
+        // rclone would read these names as comments with --files-from
+        assertEquals(List.of("#notes.txt", ";x"), diffSync.filesFrom.get("copy"));
+        assertFalse(diffSync.commands.get("copy").contains("--files-from"));
+        assertEquals(List.of("b.txt", "c.txt"), diffSync.filesFrom.get("sync"));
+    }
+
+    @Test
+    void testDiff_DestinationNotFound() throws IOException {
+        final DiffSync.Stats stats = new TestDiffSync(3).diff(dir.resolve("copies"), dir.resolve("deletes"));
+        assertEquals(new DiffSync.Stats(2, 0, 2, 0, 0), stats);
+        assertEquals(List.of("a.txt", "b.txt"), Files.readAllLines(dir.resolve("copies")));
+        assertEquals(List.of(), Files.readAllLines(dir.resolve("deletes")));
+    }
+
+    @Test
+    void testDiff_ListingFailure() {
+        final TestDiffSync diffSync = new TestDiffSync(1);
+        final Path copies = dir.resolve("copies");
+        final Path deletes = dir.resolve("deletes");
+        final IOException e = assertThrows(IOException.class, () -> diffSync.diff(copies, deletes));
+        assertTrue(e.getMessage().contains("directory not found"), e.getMessage());
+    }
+
+    @Test
+    void testRun_WithRuleAndSettings() throws Exception {
+        final TestDiffSync diffSync = new TestDiffSync(0);
+        diffSync.withRule((source, destination) -> false).withSettings(sync -> sync.withExcludes("c.txt"));
+        final Synchronization synchronization = diffSync.withWorkDirectory(dir).run();
+        synchronization.waitFor();
+        assertEquals(0, synchronization.result().exitCode());
+        assertTrue(diffSync.commands.get("src").containsAll(List.of("--exclude", "c.txt")));
+        assertTrue(diffSync.commands.get("dst").containsAll(List.of("--exclude", "c.txt")));
+        // b.txt differs in size, but the rule says it is identical
+        assertEquals(List.of("a.txt"), diffSync.filesFrom.get("copy"));
+        assertNull(diffSync.commands.get("replace"));
+    }
+
+    @Test
+    void testRun_WithCheckSum() {
+        final DiffSync diffSync = new TestDiffSync(0).withSettings(sync -> sync.withCheckSum(true)).withWorkDirectory(dir);
+        assertThrows(IllegalArgumentException.class, diffSync::run);
+        final Path copies = dir.resolve("copies");
+        final Path deletes = dir.resolve("deletes");
+        assertThrows(IllegalArgumentException.class, () -> diffSync.diff(copies, deletes));
+    }
+}
@@ -0,0 +1,423 @@
+package com.fathzer.rclonesync;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stand-in for the rclone binary that outputs a synthetic sync log, or replays a log captured from rclone.
+ * <br>It can be launched as a separate process through {@link #command()}, which is passed to
+ * {@link RcloneSync#withRcloneCommand(String...)}, or run in the current JVM through {@link #start()}.
+ * <br>The output is deterministic, so {@link #expected()} gives the events a parser should report.
+ */
+public class FakeRclone {
+    private static final String OPTION_PREFIX = "--fake-";
+    private static final String LOG_PREFIX = "2024/01/01 00:00:00 INFO  : ";
+    private static final String ERROR_PREFIX = "2024/01/01 00:00:00 ERROR : ";
+    private static final String HUGE_PREFIX = "x".repeat(32 * 1024);
+    /** An output of <code>rclone sync --stats 1s --log-level INFO --log-format date,time,microseconds</code> */
+    static final Path CAPTURED_LOG = capturedLog();
+
+    /** The failure modes of the fake. */
+    enum Failure {
+        /** The output stalls in the middle of the sync. */
+        STALL,
+        /** Some progress blocks and log lines are truncated. */
+        TRUNCATED,
+        /** Some file names are very long. */
+        HUGE_NAMES,
+        /** Some files fail, the progress blocks that follow have an "Errors:" line. */
+        ERRORS
+    }
+
+    /** The events that are written by the fake. */
+    record Counts(int progress, int copied, int replaced, int deleted) {}
+
+    private int files = 1000;
+    private int progressEvery = 10;
+    private int linesPerSecond = 0;
+    private int burst = 1;
+    private long stallMillis = 500;
+    private int exitCode = 0;
+    private Set<Failure> failures = EnumSet.noneOf(Failure.class);
+    private Path replay;
+    private int repeat = 1;
+
+    FakeRclone withFiles(int files) {
+        this.files = files;
+        return this;
+    }
+
+    FakeRclone withProgressEvery(int progressEvery) {
+        this.progressEvery = progressEvery;
+        return this;
+    }
+
+    /**
+     * Sets the output rate.
+     * @param linesPerSecond The number of lines per second (0 for unlimited)
+     * @param burst The number of lines written at once
+     * @return this
+     */
+    FakeRclone withRate(int linesPerSecond, int burst) {
+        this.linesPerSecond = linesPerSecond;
+        this.burst = burst;
+        return this;
+    }
+
+    FakeRclone withStallMillis(long stallMillis) {
+        this.stallMillis = stallMillis;
+        return this;
+    }
+
+    FakeRclone withExitCode(int exitCode) {
+        this.exitCode = exitCode;
+        return this;
+    }
+
+    FakeRclone withFailures(Failure... failures) {
+        this.failures = failures.length == 0 ? EnumSet.noneOf(Failure.class) : EnumSet.of(failures[0], failures);
+        return this;
+    }
+
+    /**
+     * Replays a captured rclone output instead of the synthetic one.
+     * <br>The rate settings apply to the replay, the file count and the failure modes are ignored.
+     * @param log The captured output (see {@link #CAPTURED_LOG})
+     * @param repeat The number of times the output is replayed
+     * @return this
+     */
+    FakeRclone withReplay(Path log, int repeat) {
+        this.replay = log;
+        this.repeat = repeat;
+        return this;
+    }
+
+    /**
+     * Gets the command that launches this fake in a new JVM.
+     * @return a command
+     */
+    List<String> command() {
+        final List<String> cmd = new ArrayList<>(List.of(
+            ProcessHandle.current().info().command().orElse("java"),
+            "-cp", System.getProperty("java.class.path"),
+            FakeRclone.class.getName()));
+        cmd.add(OPTION_PREFIX + "files=" + files);
+        cmd.add(OPTION_PREFIX + "progress-every=" + progressEvery);
+        cmd.add(OPTION_PREFIX + "rate=" + linesPerSecond);
+        cmd.add(OPTION_PREFIX + "burst=" + burst);
+        cmd.add(OPTION_PREFIX + "stall=" + stallMillis);
+        cmd.add(OPTION_PREFIX + "exit=" + exitCode);
+        failures.forEach(f -> cmd.add(OPTION_PREFIX + "failure=" + f.name()));
+        if (replay != null) {
+            cmd.add(OPTION_PREFIX + "replay=" + replay);
+            cmd.add(OPTION_PREFIX + "repeat=" + repeat);
+        }
+        return cmd;
+    }
+
+    /**
+     * Gets the events written by this fake.
+     * @return the counts of events
+     */
+    Counts expected() {
+        final FakeRclone copy = new FakeRclone().withFiles(files).withProgressEvery(progressEvery);
+        copy.replay = replay;
+        copy.repeat = repeat;
+        copy.failures = EnumSet.copyOf(failures);
+        copy.failures.remove(Failure.STALL);
+        try {
+            return copy.write(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the fake output.
+     * @param out The stream where to write
+     * @return the events written
+     * @throws IOException if an I/O error occurs
+     */
+    Counts write(OutputStream out) throws IOException {
+        final Writer writer = new Writer(out);
+        if (replay != null) {
+            return replay(writer);
+        }
+        int progress = 0;
+        int copied = 0;
+        int replaced = 0;
+        int deleted = 0;
+        int errors = 0;
+        for (int i = 0; i < files; i++) {
+            final String name = fileName(i);
+            writer.line(LOG_PREFIX + name + ": checking");
+            if (failures.contains(Failure.STALL) && i == files / 2) {
+                writer.flush();
+                sleep(TimeUnit.MILLISECONDS.toNanos(stallMillis));
+            }
+            if (failures.contains(Failure.TRUNCATED) && i % 13 == 5) {
+                writer.line(LOG_PREFIX + name + ": Copi");
+            }
+            switch (i % 4) {
+                case 0:
+                    writer.line(LOG_PREFIX + name + ": transferring");
+                    writer.line(LOG_PREFIX + name + ": Copied (new)");
+                    copied++;
+                    break;
+                case 1:
+                    writer.line(LOG_PREFIX + name + ": transferring");
+                    writer.line(LOG_PREFIX + name + ": Copied (replaced existing)");
+                    replaced++;
+                    break;
+                case 2:
+                    writer.line(LOG_PREFIX + name + ": Deleted");
+                    deleted++;
+                    break;
+                default:
+                    if (failures.contains(Failure.ERRORS) && i % 8 == 7) {
+                        writer.line(ERROR_PREFIX + name + ": Failed to copy: connection reset by peer");
+                        errors++;
+                    } else {
+                        writer.line(LOG_PREFIX + name + ": There was nothing to transfer");
+                    }
+            }
+            if (i % progressEvery == progressEvery - 1) {
+                if (failures.contains(Failure.TRUNCATED) && (i / progressEvery) % 7 == 3) {
+                    // A progress block cut in the middle of the first line
+                    writer.line("Transferred:   " + i + " B / " + files);
+                } else {
+                    writeProgress(writer, i + 1, errors);
+                    progress++;
+                }
+            }
+        }
+        writeProgress(writer, files, errors);
+        progress++;
+        writer.flush();
+        return new Counts(progress, copied, replaced, deleted);
+    }
+
+    private Counts replay(Writer writer) throws IOException {
+        final List<String> lines = Files.readAllLines(replay, StandardCharsets.UTF_8);
+        int progress = 0;
+        int copied = 0;
+        int replaced = 0;
+        int deleted = 0;
+        for (int r = 0; r < repeat; r++) {
+            String previous = "";
+            for (String line : lines) {
+                writer.line(line);
+                if (line.startsWith("Errors:")) {
+                    // The line between the bytes and the checks of a progress block, once an error occurred
+                    continue;
+                }
+                if (line.startsWith("Checks:") && previous.startsWith("Transferred:")) {
+                    progress++;
+                } else if (line.endsWith(": Copied (new)")) {
+                    copied++;
+                } else if (line.endsWith(": Copied (replaced existing)")) {
+                    replaced++;
+                } else if (line.endsWith(": Deleted")) {
+                    deleted++;
+                }
+                previous = line;
+            }
+        }
+        writer.flush();
+        return new Counts(progress, copied, replaced, deleted);
+    }
+
+    private String fileName(int index) {
+        final String name = "dir" + (index % 10) + "/file-" + index + ".txt";
+        if (failures.contains(Failure.HUGE_NAMES) && index % 10 == 7) {
+            return HUGE_PREFIX + name;
+        }
+        return name;
+    }
+
+    private void writeProgress(Writer writer, int done, int errors) throws IOException {
+        writer.line(String.format("Transferred:   %d B / %d B, %d%%, %d B/s, ETA %ds", done, files, done * 100 / files, done, files - done));
+        if (errors > 0) {
+            writer.line(String.format("Errors:                 %d (retrying may help)", errors));
+        }
+        writer.line(String.format("Checks:   %d / %d, %d%%, Listed %d", done, files, done * 100 / files, files));
+    }
+
+    private class Writer {
+        private final OutputStream out;
+        private final long nanosPerBurst;
+        private long next = System.nanoTime();
+        private int inBurst;
+
+        private Writer(OutputStream out) {
+            this.out = out;
+            this.nanosPerBurst = linesPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) * burst / linesPerSecond;
+        }
+
+        private void line(String line) throws IOException {
+            if (nanosPerBurst > 0 && ++inBurst >= burst) {
+                inBurst = 0;
+                out.flush();
+                next += nanosPerBurst;
+                sleep(next - System.nanoTime());
+            }
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    private static Path capturedLog() {
+        try {
+            return Path.of(FakeRclone.class.getResource("/rclone-sync.log").toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts this fake in the current JVM.
+     * @return a process whose output is the fake output
+     * @throws IOException if an I/O error occurs
+     */
+    Process start() throws IOException {
+        return new FakeProcess();
+    }
+
+    private class FakeProcess extends Process {
+        private final PipedInputStream in;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean destroyed;
+
+        private FakeProcess() throws IOException {
+            this.in = new PipedInputStream(8192);
+            final OutputStream out = new BufferedOutputStream(new PipedOutputStream(in));
+            final Thread thread = new Thread(() -> {
+                try (out) {
+                    write(out);
+                } catch (IOException e) {
+                    // The reader closed the stream
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            done.await();
+            return exitValue();
+        }
+
+        @Override
+        public int exitValue() {
+            if (done.getCount() > 0) {
+                throw new IllegalThreadStateException();
+            }
+            return destroyed ? 143 : exitCode;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Launches the fake.
+     * <br>Options are prefixed by --fake- (see {@link #command()}), other arguments (the rclone ones) are ignored.
+     * @param args The command line arguments
+     * @throws IOException if an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        final FakeRclone fake = new FakeRclone();
+        for (String arg : args) {
+            if (!arg.startsWith(OPTION_PREFIX)) {
+                continue;
+            }
+            final String[] option = arg.substring(OPTION_PREFIX.length()).split("=", 2);
+            switch (option[0]) {
+                case "files":
+                    fake.files = Integer.parseInt(option[1]);
+                    break;
+                case "progress-every":
+                    fake.progressEvery = Integer.parseInt(option[1]);
+                    break;
+                case "rate":
+                    fake.linesPerSecond = Integer.parseInt(option[1]);
+                    break;
+                case "burst":
+                    fake.burst = Integer.parseInt(option[1]);
+                    break;
+                case "stall":
+                    fake.stallMillis = Long.parseLong(option[1]);
+                    break;
+                case "exit":
+                    fake.exitCode = Integer.parseInt(option[1]);
+                    break;
+                case "failure":
+                    fake.failures.add(Failure.valueOf(option[1]));
+                    break;
+                case "replay":
+                    fake.replay = Path.of(option[1]);
+                    break;
+                case "repeat":
+                    fake.repeat = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        final OutputStream out = new BufferedOutputStream(System.out, 65536);
+        fake.write(out);
+        out.flush();
+        System.exit(fake.exitCode);
+    }
+}
@@ -0,0 +1,133 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FanOutSyncTest {
+    @TempDir
+    Path tempDir;
+
+    private static final String PROGRESS = "Transferred:   1 KiB / 2 KiB, 50%, 1 KiB/s, ETA 1s\nChecks:  1 / 2, 50%, Listed 2\n";
+
+    private static class TestFanOutSync extends FanOutSync {
+        private final Map<String, List<String>> commands = new ConcurrentHashMap<>();
+        private final Map<String, List<String>> lists = new ConcurrentHashMap<>();
+        private final int listingExitCode;
+        private String listing = "a.txt\n";
+
+        TestFanOutSync(int listingExitCode, String... destinations) {
+            super("src", destinations);
+            this.listingExitCode = listingExitCode;
+        }
+
+        @Override
+        RcloneSync newSync(String source, String destination) {
+            return new RcloneSync(source, destination) {
+                @Override
+                Process buildProcess(List<String> cmd) throws IOException {
+                    commands.put(destination, cmd);
+                    lists.put(destination, Files.readAllLines(Path.of(cmd.get(cmd.indexOf("--files-from-raw") + 1))));
+                    final String output = destination.equals("dst1") ? PROGRESS + "INFO  : a.txt: Copied (new)\n" : PROGRESS;
+                    return new TestProcess(output, destination.equals("dst2") ? 3 : 0);
+                }
+
+                @Override
+                Process buildListingProcess(List<String> cmd, Path output) throws IOException {
+                    commands.put("listing", cmd);
+                    Files.writeString(output, listing);
+                    return new TestProcess("", listingExitCode);
+                }
+            };
+        }
+    }
+
+    @Test
+    void testRun() throws Exception {
+        final TestFanOutSync fanOutSync = new TestFanOutSync(0, "dst1", "dst2");
+        final Map<String, Progress> received = new ConcurrentHashMap<>();
+        fanOutSync.withEventConsumer(received::put);
+
+        final FanOutSynchronization fanOut = fanOutSync.run();
+        fanOut.waitFor();
+
+        assertEquals(List.of("dst1", "dst2"), List.copyOf(fanOut.synchronizations().keySet()));
+        assertEquals(List.of("rclone", "lsf", "-R", "--files-only", "--fast-list", "src"), fanOutSync.commands.get("listing"));
+        final List<String> cmd = fanOutSync.commands.get("dst1");
+        final String filesFrom = cmd.get(cmd.indexOf("--files-from-raw") + 1);
+        assertFalse(Files.exists(Path.of(filesFrom)), "Listing should be deleted after completion");
+        assertTrue(cmd.contains("--delete-excluded"));
+
+        // Progress is received asynchronously, wait for the output readers to finish
+        for (int i = 0; i < 100 && received.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, received.size());
+        final Progress progress = fanOut.progress().orElseThrow();
+        assertEquals(2048, progress.processedBytes());
+        assertEquals(4096, progress.totalBytes());
+        assertEquals("2.000 KiB/s", progress.bytesThroughput());
+        assertEquals(2, progress.processedChecks());
+        assertEquals(1024, fanOut.progress("dst1").orElseThrow().processedBytes());
+
+        final SynchronizationResult result = fanOut.result();
+        assertEquals(3, result.exitCode());
+        assertEquals(0, fanOut.synchronizations().get("dst1").result().exitCode());
+    }
+
+    @Test
+    void testRun_WithExclusions() throws Exception {
+        final TestFanOutSync fanOutSync = new TestFanOutSync(0, "dst1");
+        fanOutSync.withSettings(sync -> sync.withExcludes("*.tmp"));
+        fanOutSync.run().waitFor();
+        assertTrue(fanOutSync.commands.get("listing").contains("*.tmp"));
+        assertFalse(fanOutSync.commands.get("dst1").contains("--delete-excluded"));
+    }
+
+    @Test
+    void testRun_WithCommentLikeNames() throws Exception {
+        // With --files-from, these names would be dropped from the list, then deleted by --delete-excluded
+        final TestFanOutSync fanOutSync = new TestFanOutSync(0, "dst1");
+        fanOutSync.listing = "#notes.txt\n;x\n name \n";
+        fanOutSync.run().waitFor();
+        final List<String> cmd = fanOutSync.commands.get("dst1");
+        assertFalse(cmd.contains("--files-from"));
+        assertTrue(cmd.contains("--delete-excluded"));
+        assertEquals(List.of("#notes.txt", ";x", " name "), fanOutSync.lists.get("dst1"));
+    }
+
+    @Test
+    void testRun_WithCheckpointJournal() throws Exception {
+        final Path journal = tempDir.resolve("journal");
+        final TestFanOutSync fanOutSync = new TestFanOutSync(0, "dst1", "dst2");
+        fanOutSync.withSettings(sync -> sync.withCheckpointJournal(journal));
+        fanOutSync.run().waitFor();
+        // dst1 succeeded, dst2 failed and can be resumed
+        assertFalse(Files.exists(tempDir.resolve("journal.0")));
+        assertTrue(Files.exists(tempDir.resolve("journal.1")));
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    void testRun_ListingFails() {
+        final TestFanOutSync fanOutSync = new TestFanOutSync(1, "dst1");
+        assertThrows(IOException.class, fanOutSync::run);
+        assertNull(fanOutSync.commands.get("dst1"));
+    }
+
+    @Test
+    void testConstructor_InvalidArguments() {
+        assertThrows(NullPointerException.class, () -> new FanOutSync(null, "dst"));
+        assertThrows(NullPointerException.class, () -> new FanOutSync("src", (String[]) null));
+        assertThrows(NullPointerException.class, () -> new FanOutSync("src", "dst", null));
+        assertThrows(IllegalArgumentException.class, () -> new FanOutSync("src"));
+    }
+}
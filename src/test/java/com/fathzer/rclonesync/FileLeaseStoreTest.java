@@ -0,0 +1,161 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileLeaseStoreTest {
+    private static final Duration TTL = Duration.ofSeconds(30);
+
+    @TempDir
+    Path dir;
+
+    /** A clock that only moves when it is told to */
+    static class TestClock extends Clock {
+        private volatile Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    @Test
+    void testLeases() throws IOException {
+        final TestClock clock = new TestClock();
+        final LeaseStore node1 = new FileLeaseStore(dir, clock);
+        final LeaseStore node2 = new FileLeaseStore(dir, clock).withMaxClockSkew(Duration.ofSeconds(1));
+
+        final LeaseStore.Lease lease = node1.acquire("remote:backup", "node1", TTL).orElseThrow();
+        assertEquals(1, lease.token());
+        assertEquals(clock.instant().plus(TTL), lease.expiry());
+        assertTrue(node2.acquire("remote:backup", "node2", TTL).isEmpty());
+        assertTrue(node1.acquire("remote:backup", "node1", TTL).isEmpty());
+        assertTrue(node2.acquire("remote:other", "node2", TTL).isPresent());
+
+        // Heartbeat
+        clock.advance(Duration.ofSeconds(20));
+        final LeaseStore.Lease renewed = node1.renew(lease, TTL).orElseThrow();
+        assertEquals(clock.instant().plus(TTL), renewed.expiry());
+        clock.advance(Duration.ofSeconds(30));
+        // Expired, but within the clock skew
+        assertTrue(node2.acquire("remote:backup", "node2", TTL).isEmpty());
+
+        // Recovery of the expired lease, node1 is fenced out
+        clock.advance(Duration.ofSeconds(1));
+        final LeaseStore.Lease recovered = node2.acquire("remote:backup", "node2", TTL).orElseThrow();
+        assertEquals(2, recovered.token());
+        assertTrue(node1.renew(renewed, TTL).isEmpty());
+        node1.release(renewed, true);
+        assertTrue(node1.acquire("remote:backup", "node1", TTL).isEmpty());
+
+        node2.release(recovered, false);
+        assertTrue(node2.renew(recovered, TTL).isEmpty());
+        assertEquals(3, node1.acquire("remote:backup", "node1", TTL).orElseThrow().token());
+    }
+
+    @Test
+    void testLostContent() throws IOException {
+        final TestClock clock = new TestClock();
+        final LeaseStore node1 = new FileLeaseStore(dir, clock);
+        final LeaseStore.Lease lease = node1.acquire("dst", "node1", Duration.ofMinutes(1)).orElseThrow();
+        node1.submit("shard");
+        // A power loss emptied the files
+        try (Stream<Path> files = Files.list(dir.resolve("leases"))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.writeString(file, "");
+            }
+        }
+        try (Stream<Path> files = Files.list(dir.resolve("queue"))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.writeString(file, "");
+            }
+        }
+
+        // The lease is considered expired instead of locking the key out
+        assertTrue(node1.renew(lease, Duration.ofMinutes(1)).isEmpty());
+        assertTrue(new FileLeaseStore(dir, clock).acquire("dst", "node2", Duration.ofMinutes(1)).isPresent());
+        assertEquals(List.of("shard"), node1.queued());
+    }
+
+    @Test
+    void testQueue() throws IOException {
+        final TestClock clock = new TestClock();
+        final LeaseStore node1 = new FileLeaseStore(dir, clock);
+        final LeaseStore node2 = new FileLeaseStore(dir, clock);
+        node1.submit("shard/b");
+        clock.advance(Duration.ofMillis(1));
+        node2.submit("shard/a");
+        node1.submit("shard/b");
+        assertEquals(List.of("shard/b", "shard/a"), node2.queued());
+
+        final LeaseStore.Lease b = node1.claim("node1", TTL).orElseThrow();
+        assertEquals("shard/b", b.key());
+        final LeaseStore.Lease a = node2.claim("node2", TTL).orElseThrow();
+        assertEquals("shard/a", a.key());
+        assertTrue(node2.claim("node2", TTL).isEmpty());
+
+        node1.release(b, true);
+        assertEquals(List.of("shard/a"), node1.queued());
+        // node2 died, its shard is stolen once its lease expired
+        clock.advance(TTL.plusSeconds(5));
+        final LeaseStore.Lease stolen = node1.claim("node1", TTL).orElseThrow();
+        assertEquals("shard/a", stolen.key());
+        assertEquals(2, stolen.token());
+        node2.release(a, true);
+        assertEquals(List.of("shard/a"), node1.queued());
+        node1.release(stolen, false);
+        assertEquals(List.of("shard/a"), node1.queued());
+        assertTrue(node2.claim("node2", TTL).isPresent());
+    }
+
+    @Test
+    void testConcurrentAcquisitions() throws Exception {
+        final List<LeaseStore> stores = List.of(new FileLeaseStore(dir), new FileLeaseStore(dir.resolve("..").resolve(dir.getFileName())));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Callable<Optional<LeaseStore.Lease>>> tasks = IntStream.range(0, 32)
+                .<Callable<Optional<LeaseStore.Lease>>>mapToObj(i -> () -> stores.get(i % 2).acquire("key", "node" + i, TTL))
+                .toList();
+            long acquired = 0;
+            for (Future<Optional<LeaseStore.Lease>> future : executor.invokeAll(tasks)) {
+                acquired += future.get().isPresent() ? 1 : 0;
+            }
+            assertEquals(1, acquired);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
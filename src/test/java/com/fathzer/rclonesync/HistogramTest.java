@@ -0,0 +1,74 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+    @Test
+    void testEmpty() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.min());
+        assertEquals(0, histogram.max());
+        assertEquals(0.0, histogram.mean());
+        assertEquals(0, histogram.valueAtPercentile(99));
+        assertThrows(IllegalArgumentException.class, () -> histogram.valueAtPercentile(101));
+    }
+
+    @Test
+    void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1, histogram.min());
+        assertEquals(1000, histogram.max());
+        assertEquals(500.5, histogram.mean());
+        // Exact below 64
+        assertEquals(10, histogram.valueAtPercentile(1));
+        assertEquals(500, histogram.valueAtPercentile(50), 500 / 32.0);
+        assertEquals(990, histogram.valueAtPercentile(99), 990 / 32.0);
+        assertEquals(1000, histogram.valueAtPercentile(100));
+        assertEquals(1, histogram.valueAtPercentile(0));
+    }
+
+    @Test
+    void testPrecision() {
+        final Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            final long value = random.nextLong() >>> (1 + random.nextInt(63));
+            final Histogram histogram = new Histogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            final long estimate = histogram.valueAtPercentile(50);
+            assertTrue(estimate >= value && estimate - value <= value / 32, value + " -> " + estimate);
+        }
+        final Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.min());
+        assertEquals(Long.MAX_VALUE, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    void testSnapshotAndAdd() {
+        final Histogram histogram = new Histogram();
+        histogram.record(100);
+        final Histogram snapshot = histogram.snapshot();
+        histogram.record(200);
+        assertEquals(1, snapshot.count());
+        assertEquals(100, snapshot.max());
+
+        final Histogram other = new Histogram();
+        other.record(5);
+        histogram.add(other);
+        histogram.add(new Histogram());
+        assertEquals(3, histogram.count());
+        assertEquals(5, histogram.min());
+        assertEquals(305, histogram.sum());
+    }
+}
@@ -0,0 +1,73 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class OutputScannerTest {
+    private static final List<String> IGNORED = List.of(": checking", ": transferring");
+
+    private static List<String> scan(InputStream in) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (OutputScanner scanner = new OutputScanner(in, IGNORED)) {
+            for (String line = scanner.nextLine(); line != null; line = scanner.nextLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> scan(String text) throws IOException {
+        return scan(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** A stream that returns one byte at a time, to test lines split across reads. */
+    private static InputStream slow(String text) {
+        final InputStream in = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    @Test
+    void testTerminators() throws IOException {
+        final String text = "a\nb\r\nc\rd\n\ne";
+        final List<String> expected = List.of("a", "b", "c", "d", "", "e");
+        assertEquals(expected, scan(text));
+        assertEquals(expected, scan(slow(text)));
+        assertEquals(List.of("a"), scan("a\r\n"));
+        assertEquals(List.of(), scan(""));
+    }
+
+    @Test
+    void testIgnoredLines() throws IOException {
+        final String text = "f1: checking\nf1: Copied (new)\nf2: transferring\r\n: checking\nchecking\n";
+        final List<String> expected = List.of("f1: Copied (new)", "checking");
+        assertEquals(expected, scan(text));
+        assertEquals(expected, scan(slow(text)));
+    }
+
+    @Test
+    void testUtf8AndLongLines() throws IOException {
+        final String longName = "été/".repeat(10000) + "文件";
+        final String text = longName + ": Copied (new)\n" + longName + ": checking\nend";
+        final List<String> expected = List.of(longName + ": Copied (new)", "end");
+        assertEquals(expected, scan(text));
+        assertEquals(expected, scan(slow(text)));
+    }
+}
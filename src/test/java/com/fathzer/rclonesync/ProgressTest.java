@@ -2,6 +2,8 @@ package com.fathzer.rclonesync;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
@@ -43,4 +45,25 @@ class ProgressTest {
     void basicTest() {
         assertEquals(1, Progress.decode("1B"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAggregate() {
+        final Progress p1 = new Progress(1024, 2048, "1.5 KiB/s", "1m30s", 1, 2);
+        final Progress p2 = new Progress(10, 20, "-", "-", 3, 4);
+        final Progress aggregated = Progress.aggregate(List.of(p1, p2));
+        assertEquals(1034, aggregated.processedBytes());
+        assertEquals(2068, aggregated.totalBytes());
+        assertEquals("1.500 KiB/s", aggregated.bytesThroughput());
+        assertEquals("1m30s", aggregated.eta());
+        assertEquals(4, aggregated.processedChecks());
+        assertEquals(6, aggregated.totalChecks());
+        assertEquals("-", Progress.aggregate(List.of(p2)).eta());
+    }
+
+    @Test
+    void testDecodeEta() {
+        assertEquals(3723, Progress.decodeEta("1h2m3s"));
+        assertEquals(86400, Progress.decodeEta("1d0h0m0s"));
+        assertEquals(-1, Progress.decodeEta("-"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.rclonesync.FakeRclone.Counts;
+import com.fathzer.rclonesync.FakeRclone.Failure;
+
+/**
+ * Load tests based on {@link FakeRclone}.
+ * <br>Tests tagged with "soak" are long and are only run with the soak maven profile.
+ */
+class RcloneSyncLoadTest {
+    private static class Run {
+        private final FakeRclone fake;
+        private final boolean subprocess;
+        private final AtomicInteger progressCount = new AtomicInteger();
+        private Synchronization synchronization;
+
+        private Run(FakeRclone fake) {
+            this(fake, false);
+        }
+
+        /**
+         * @param fake the fake rclone
+         * @param subprocess true to launch the fake as the rclone binary of the synchronization, false to run it in
+         * the current JVM (which is cheaper, but skips the command line and the process management)
+         */
+        private Run(FakeRclone fake, boolean subprocess) {
+            this.fake = fake;
+            this.subprocess = subprocess;
+        }
+
+        private Run start() throws IOException {
+            final RcloneSync sync;
+            if (subprocess) {
+                sync = new RcloneSync("source", "destination").withRcloneCommand(fake.command().toArray(String[]::new));
+            } else {
+                sync = new RcloneSync("source", "destination") {
+                    @Override
+                    Process buildProcess(List<String> cmd) throws IOException {
+                        return fake.start();
+                    }
+                };
+            }
+            synchronization = sync.withEventConsumer(p -> progressCount.incrementAndGet()).run();
+            return this;
+        }
+
+        private void check() throws InterruptedException {
+            synchronization.waitFor();
+            assertCounts(fake.expected(), synchronization.result(), progressCount.get());
+        }
+    }
+
+    private static void assertCounts(Counts expected, SynchronizationResult result, int progressCount) {
+        assertEquals(expected.progress(), progressCount, "progress events");
+        assertEquals(expected.copied(), result.copied(), "copied");
+        assertEquals(expected.replaced(), result.replaced(), "replaced");
+        assertEquals(expected.deleted(), result.deleted(), "deleted");
+    }
+
+    @Test
+    void testFailureModes() throws Exception {
+        final FakeRclone fake = new FakeRclone().withFiles(2000).withStallMillis(100).withFailures(Failure.values());
+        new Run(fake).start().check();
+    }
+
+    @Test
+    void testSubprocess() throws Exception {
+        final FakeRclone fake = new FakeRclone().withFiles(500).withStallMillis(50).withExitCode(3).withFailures(Failure.values());
+        final AtomicInteger progressCount = new AtomicInteger();
+        final List<String> command = fake.command();
+        final Synchronization synchronization = new RcloneSync("source", "destination")
+            .withRcloneCommand(command.toArray(String[]::new))
+            .withEventConsumer(p -> progressCount.incrementAndGet())
+            .run();
+        synchronization.waitFor();
+        assertEquals(3, synchronization.result().exitCode());
+        assertCounts(fake.expected(), synchronization.result(), progressCount.get());
+    }
+
+    @Test
+    void testReplay() throws Exception {
+        final FakeRclone fake = new FakeRclone().withReplay(FakeRclone.CAPTURED_LOG, 3);
+        final Counts expected = fake.expected();
+        assertTrue(expected.progress() > 0 && expected.copied() > 0 && expected.replaced() > 0 && expected.deleted() > 0, expected.toString());
+        new Run(fake).start().check();
+        new Run(fake, true).start().check();
+    }
+
+    @Test
+    void testConcurrentSubprocesses() throws Exception {
+        final List<Run> runs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final FakeRclone fake = i % 2 == 0 ? new FakeRclone().withReplay(FakeRclone.CAPTURED_LOG, 20)
+                : new FakeRclone().withFiles(2000).withFailures(Failure.values());
+            runs.add(new Run(fake.withRate(20000, 100), true).start());
+        }
+        for (Run run : runs) {
+            run.check();
+        }
+    }
+
+    @Test
+    @Tag("soak")
+    void testConcurrentSyncs() throws Exception {
+        final List<Run> runs = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final FakeRclone fake = i % 5 == 0 ? new FakeRclone().withReplay(FakeRclone.CAPTURED_LOG, 70)
+                : new FakeRclone().withFiles(5000);
+            fake.withRate(20000, 1 + i % 50);
+            if (i % 3 == 0) {
+                fake.withFailures(Failure.values());
+            }
+            // One run out of 20 goes through the command line and a real process
+            runs.add(new Run(fake, i % 20 == 0).start());
+        }
+        for (Run run : runs) {
+            run.check();
+        }
+    }
+
+    @Test
+    @Tag("soak")
+    void testMemoryStaysFlat() throws Exception {
+        long baseline = 0;
+        for (int wave = 0; wave < 6; wave++) {
+            final List<Run> runs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final Failure[] failures = i % 10 == 0 ? new Failure[] {Failure.TRUNCATED, Failure.HUGE_NAMES} : new Failure[] {Failure.TRUNCATED};
+                runs.add(new Run(new FakeRclone().withFiles(10000).withFailures(failures)).start());
+            }
+            for (Run run : runs) {
+                run.check();
+            }
+            final long used = usedMemory();
+            if (wave == 0) {
+                baseline = used;
+            } else {
+                assertTrue(used - baseline < 32 * 1024 * 1024, "Memory grew from " + baseline + " to " + used + " after wave " + wave);
+            }
+        }
+    }
+
+    @Test
+    @Tag("soak")
+    @SuppressWarnings("squid:S106")
+    void testThroughput() throws Exception {
+        final FakeRclone fake = new FakeRclone().withFiles(1_000_000).withProgressEvery(1000);
+        final long start = System.nanoTime();
+        new Run(fake).start().check();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        // Every file produces about 3 lines
+        System.out.printf("Parsed %.0f lines/s%n", 3_000_000 / seconds);
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
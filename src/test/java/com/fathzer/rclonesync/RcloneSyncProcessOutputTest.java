@@ -46,6 +46,182 @@ class RcloneSyncProcessOutputTest {
         assertNotNull(progress, "Progress should not be null");
     }
 
+    @Test
+    void testProcessOutput_WithDeferredTransfers() throws IOException {
+        // Given
+        String input = "Transferred:  1 KiB / 3 KiB, 33%, 1 KiB/s, ETA 2s\n"
+            + "Checks:  10 / 10, 100%, Listed 10\n"
+            + "Transferred:            4 / 10, 40%\n"
+            + "Elapsed time:       2h0m0.1s\n";
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+        result.setExitCode(SynchronizationResult.MAX_DURATION_EXIT_CODE);
+
+        // Then
+        assertEquals(1, capturedProgress.size());
+        assertEquals(6, result.deferredFiles());
+        assertEquals(2048, result.deferredBytes());
+        assertTrue(result.isTimeBudgetExhausted());
+    }
+
+    @Test
+    void testProcessOutput_WithErrors() throws IOException {
+        // Given
+        List<String> lines = List.of(
+            "2023/01/01 12:00:00 ERROR : a.txt: Failed to copy: read tcp 10.0.0.1:443: connection reset by peer",
+            "2023/01/01 12:00:00 ERROR : dir/b.txt: Failed to copy: open dir/b.txt: permission denied",
+            "2023/01/01 12:00:00 ERROR : notes: draft.txt: Failed to copy: permission denied",
+            "2023/01/01 12:00:00 ERROR : S3 bucket x: error reading source root directory: AccessDenied: access denied",
+            "2023/01/01 12:00:00 ERROR : Local file system at /tmp/dst: not deleting files as there were IO errors",
+            "2023/01/01 12:00:01 ERROR : Attempt 1/3 failed with 2 errors and: connection reset by peer",
+            "2023/01/01 12:00:02 INFO  : a.txt: Copied (new)"
+        );
+        String input = String.join("\n", lines);
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+
+        // Then
+        // The path may contain ": ", the errors that don't concern a file are ignored
+        assertEquals(List.of(new FileFailure("dir/b.txt", FileFailure.Category.PERMISSION, "Failed to copy: open dir/b.txt: permission denied"),
+            new FileFailure("notes: draft.txt", FileFailure.Category.PERMISSION, "Failed to copy: permission denied")),
+            result.failures());
+        assertEquals(1, result.copied());
+    }
+
+    @Test
+    void testProcessOutput_WithErrorsInStats() throws IOException {
+        // Given
+        List<String> lines = List.of(
+            "2023/01/01 12:00:00 ERROR : a.txt: Failed to copy: connection reset by peer",
+            "2023/01/01 12:00:01 INFO  : ",
+            "Transferred:   \t   10 MiB / 100 MiB, 10%, 10 MiB/s, ETA 9s",
+            "Errors:                 1 (retrying may help)",
+            "Checks:                 0 / 0, -, Listed 3",
+            "Transferred:            1 / 3, 33%",
+            "Elapsed time:         1.0s"
+        );
+        String input = String.join("\n", lines);
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+
+        // Then
+        assertEquals(1, capturedProgress.size());
+        assertEquals(10 * 1024 * 1024, capturedProgress.get(0).processedBytes());
+        assertEquals(1, result.failures().size());
+        assertEquals(2, result.deferredFiles());
+    }
+
+    @Test
+    void testProcessOutput_WithTransferStats() throws IOException {
+        // Given
+        List<String> lines = List.of(
+            "2023/01/01 12:00:00 INFO  : small.txt: Copied (new)",
+            "2023/01/01 12:00:01 INFO  : ",
+            "Transferred:   \t   10 MiB / 100 MiB, 10%, 10 MiB/s, ETA 9s",
+            "Checks:                 0 / 0, -, Listed 3",
+            "Transferred:            1 / 3, 33%",
+            "Elapsed time:         1.0s",
+            "Transferring:",
+            " *                                dir/big.bin: 10% /90Mi, 10Mi/s, 9s",
+            " *                                  other.bin: 0% /10Mi, 0/s, -",
+            "2023/01/01 12:00:02 INFO  : small2.txt: Copied (new)",
+            "2023/01/01 12:00:10 INFO  : dir/big.bin: Copied (replaced existing)"
+        );
+        String input = String.join("\n", lines);
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+
+        // Then
+        Histogram durations = result.transferDurations();
+        assertEquals(3, durations.count());
+        assertEquals(0, durations.min());
+        assertEquals(9000, durations.max());
+        Histogram sizes = result.fileSizes();
+        assertEquals(1, sizes.count());
+        assertEquals(90 * 1024 * 1024, sizes.max());
+        assertEquals(10 * 1024 * 1024, result.throughputs().max());
+    }
+
+    @Test
+    void testProcessOutput_WithFailedTransfer() throws IOException {
+        // Given
+        List<String> lines = List.of(
+            "2023/01/01 12:00:01.000000 INFO  : ",
+            "Transferred:   \t   1 MiB / 10 MiB, 10%, 1 MiB/s, ETA 9s",
+            "Checks:                 0 / 0, -, Listed 1",
+            "Transferred:            0 / 1, 0%",
+            "Elapsed time:         1.0s",
+            "Transferring:",
+            " *                                 failed.bin: 10% /10Mi, 1Mi/s, 9s",
+            "2023/01/01 12:00:01.500000 ERROR : failed.bin: Failed to copy: connection reset by peer",
+            "2023/01/01 12:00:02.000000 INFO  : ",
+            "Transferred:   \t   1 MiB / 10 MiB, 10%, 0 B/s, ETA -",
+            "Checks:                 0 / 0, -, Listed 1",
+            "Transferred:            0 / 1, 0%",
+            "Elapsed time:         2.0s",
+            // The retry of rclone transfers the file again
+            "2023/01/01 12:00:20.000000 INFO  : ",
+            "Transferred:   \t   5 MiB / 10 MiB, 50%, 5 MiB/s, ETA 1s",
+            "Checks:                 0 / 0, -, Listed 1",
+            "Transferred:            0 / 1, 0%",
+            "Elapsed time:        20.0s",
+            "Transferring:",
+            " *                                 failed.bin: 50% /10Mi, 5Mi/s, 1s",
+            "2023/01/01 12:00:21.250000 INFO  : failed.bin: Copied (new)"
+        );
+        String input = String.join("\n", lines);
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+
+        // Then the failed transfer was forgotten when it disappeared from the statistics
+        Histogram durations = result.transferDurations();
+        assertEquals(1, durations.count());
+        assertEquals(1250, durations.max());
+    }
+
+    @Test
+    void testProcessOutput_WithTransferAcrossStatsBlocks() throws IOException {
+        // Given
+        List<String> lines = List.of(
+            "2024/03/12 09:14:04.000000 INFO  : ",
+            "Transferred:   \t   1 MiB / 20 MiB, 5%, 1 MiB/s, ETA 19s",
+            "Checks:                 0 / 0, -, Listed 2",
+            "Transferred:            0 / 1, 0%",
+            "Elapsed time:         4.0s",
+            "Transferring:",
+            " *                                    big.bin:  5% /20Mi, 1Mi/s, 19s",
+            "2024/03/12 09:14:05.000000 INFO  : ",
+            "Transferred:   \t   18 MiB / 20 MiB, 90%, 17 MiB/s, ETA 0s",
+            "Checks:                 0 / 0, -, Listed 2",
+            "Transferred:            0 / 1, 0%",
+            "Elapsed time:         5.0s",
+            "Transferring:",
+            " *                                    big.bin: 90% /20Mi, 17Mi/s, 0s",
+            "2024/03/12 09:14:05.100000 INFO  : big.bin: Copied (new)"
+        );
+        String input = String.join("\n", lines);
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+
+        // Then the transfer is measured from the first block where it appeared
+        Histogram durations = result.transferDurations();
+        assertEquals(1, durations.count());
+        assertEquals(1100, durations.max());
+        assertEquals(20 * 1024 * 1024, result.fileSizes().max());
+    }
+
     @Test
     void testProcessOutput_WithNonProgressLines() throws IOException {
         // Given
@@ -68,6 +244,34 @@ class RcloneSyncProcessOutputTest {
         assertEquals(1, result.copied());
     }
 
+    @Test
+    void testProcessOutput_WithPublishers() throws IOException {
+        // Given
+        String input = "Transferred:  0 B / 0 B, -, 0 B/s, ETA -\nChecks:  0 / 0, -, Listed 11\n"
+            + "2023/01/01 12:00:00 INFO  : dir/file.txt: Copied (new)\n"
+            + "2023/01/01 12:00:01 INFO  : file2.txt: Deleted\n";
+        Process process = mock(Process.class);
+        Synchronization synchronization = new Synchronization(process, result);
+        DemandPublisherTest.RecordingSubscriber<Progress> progressSubscriber = new DemandPublisherTest.RecordingSubscriber<>(1);
+        DemandPublisherTest.RecordingSubscriber<FileEvent> fileSubscriber = new DemandPublisherTest.RecordingSubscriber<>(1);
+        DemandPublisherTest.RecordingSubscriber<SynchronizationResult> completionSubscriber = new DemandPublisherTest.RecordingSubscriber<>(1);
+        synchronization.progressPublisher().subscribe(progressSubscriber);
+        synchronization.fileEventPublisher().subscribe(fileSubscriber);
+        synchronization.completionPublisher().subscribe(completionSubscriber);
+
+        // When
+        rcloneSync.processOutput(() -> new ByteArrayInputStream(input.getBytes()), synchronization);
+        synchronization.complete(null);
+
+        // Then - the file subscriber requested only one event
+        assertEquals(1, progressSubscriber.items.size());
+        assertEquals(List.of(new FileEvent("dir/file.txt", FileEvent.Type.COPIED)), fileSubscriber.items);
+        assertEquals(List.of(result), completionSubscriber.items);
+        assertTrue(progressSubscriber.completed);
+        assertTrue(fileSubscriber.completed);
+        assertTrue(completionSubscriber.completed);
+    }
+
     @Test
     void testProcessOutput_WithIOException() throws IOException, InterruptedException {
         final InputStream failingInputStream = new InputStream() {
@@ -132,4 +336,18 @@ class RcloneSyncProcessOutputTest {
         // Then - Verify no progress was captured
         assertTrue(capturedProgress.isEmpty(), "No progress should be captured for partial progress");
     }
+
+    @Test
+    void testProcessOutput_WithTruncatedProgress() throws IOException {
+        // Given - A truncated progress block followed by a complete one, then a progress start at the end of the output
+        String progress = "Transferred:  0 B / 0 B, -, 0 B/s, ETA -\nChecks:  0 / 0, -, Listed 11\n";
+        String input = "Transferred:  0 B / 0\n" + progress + "Transferred:  0 B / 0 B, -, 0 B/s, ETA -";
+        Supplier<InputStream> inputSupplier = () -> new ByteArrayInputStream(input.getBytes());
+
+        // When
+        rcloneSync.processOutput(inputSupplier, result);
+
+        // Then - Only the complete block is reported
+        assertEquals(1, capturedProgress.size());
+    }
 }
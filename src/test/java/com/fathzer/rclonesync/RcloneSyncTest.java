@@ -2,6 +2,7 @@ package com.fathzer.rclonesync;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Duration;
 import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -26,7 +27,8 @@ class RcloneSyncTest {
         
         assertCommandContains(command, 
             "rclone", "sync", SOURCE, DESTINATION,
-            "--fast-list", "--stats", "1s", "--log-level", "INFO"
+            "--fast-list", "--stats", "1s", "--stats-file-name-length", "0", "--log-level", "INFO",
+            "--log-format", "date,time,microseconds"
         );
     }
 
@@ -62,6 +64,56 @@ class RcloneSyncTest {
         assertCommandContains(command, "--config", CONFIG_FILE);
     }
 
+    @Test
+    void testBuildCommand_WithRcloneCommand() {
+        assertThrows(IllegalArgumentException.class, () -> rcloneSync.withRcloneCommand());
+        rcloneSync.withRcloneCommand("/opt/rclone/rclone", "-v");
+        List<String> command = rcloneSync.buildCommand();
+
+        assertEquals(List.of("/opt/rclone/rclone", "-v", "sync", SOURCE, DESTINATION), command.subList(0, 5));
+    }
+
+    @Test
+    void testBuildCommand_WithFilesFrom() {
+        rcloneSync.withFilesFrom("/path/to/files");
+        List<String> command = rcloneSync.buildCommand();
+
+        assertCommandContains(command, "--files-from", "/path/to/files");
+        assertFalse(command.contains("--delete-excluded"));
+    }
+
+    @Test
+    void testBuildCommand_WithFilesFromRaw() {
+        rcloneSync.withFilesFromRaw("/path/to/files");
+        List<String> command = rcloneSync.buildCommand();
+
+        assertCommandContains(command, "--files-from-raw", "/path/to/files");
+        assertFalse(command.contains("--files-from"));
+    }
+
+    @Test
+    void testBuildCommand_WithTimeBudget() {
+        rcloneSync.withTimeBudget(Duration.ofHours(2), RcloneSync.Order.NEWEST_FIRST);
+        List<String> command = rcloneSync.buildCommand();
+
+        assertCommandContains(command, "--max-duration", "7200s");
+        assertCommandContains(command, "--cutoff-mode", "soft");
+        assertCommandContains(command, "--order-by", "modtime,descending");
+        assertTrue(command.contains("--check-first"));
+
+        rcloneSync.withTimeBudget(Duration.ofMinutes(30), null);
+        command = rcloneSync.buildCommand();
+        assertCommandContains(command, "--max-duration", "1800s");
+        assertFalse(command.contains("--order-by"));
+        assertThrows(IllegalArgumentException.class, () -> rcloneSync.withTimeBudget(Duration.ZERO, null));
+
+        // Budgets that are not whole seconds are rounded up, 0s would mean no limit
+        rcloneSync.withTimeBudget(Duration.ofNanos(1), null);
+        assertCommandContains(rcloneSync.buildCommand(), "--max-duration", "1ms");
+        rcloneSync.withTimeBudget(Duration.ofMillis(1500), null);
+        assertCommandContains(rcloneSync.buildCommand(), "--max-duration", "1500ms");
+    }
+
     @Test
     void testBuildCommand_WithAllOptions() {
         rcloneSync.withCheckSum(true);
@@ -72,7 +124,8 @@ class RcloneSyncTest {
         
         assertCommandContains(command, 
             "rclone", "sync", SOURCE, DESTINATION,
-            "--fast-list", "--stats", "1s", "--log-level", "INFO",
+            "--fast-list", "--stats", "1s", "--stats-file-name-length", "0", "--log-level", "INFO",
+            "--log-format", "date,time,microseconds",
             "--checksum",
             "--exclude-from", EXCLUDES_FILE,
             "--config", CONFIG_FILE
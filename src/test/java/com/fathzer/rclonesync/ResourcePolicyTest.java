@@ -0,0 +1,134 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import com.fathzer.rclonesync.ResourcePolicy.IoClass;
+import com.fathzer.rclonesync.ResourcePolicy.Setting;
+
+class ResourcePolicyTest {
+    private static final List<String> CMD = List.of("rclone", "sync", "a", "b");
+
+    @Test
+    void testWrap_AllSettings() {
+        final ResourcePolicy policy = new ResourcePolicy()
+            .withNice(10)
+            .withIoClass(IoClass.BEST_EFFORT, 7)
+            .withCpuAffinity(0, 2)
+            .withMemoryMax(1024)
+            .withCpuQuota(50);
+        final Set<Setting> applied = EnumSet.noneOf(Setting.class);
+
+        final List<String> cmd = policy.wrap(CMD, applied, tool -> true, 0);
+
+        assertEquals(List.of(
+            "systemd-run", "--user", "--scope", "--quiet", "-p", "MemoryMax=1024", "-p", "CPUQuota=50%", "--",
+            "nice", "-n", "10",
+            "ionice", "-t", "-c", "2", "-n", "7",
+            "taskset", "-c", "0,2",
+            "rclone", "sync", "a", "b"), cmd);
+        assertEquals(EnumSet.allOf(Setting.class), applied);
+    }
+
+    @Test
+    void testWrap_UnavailableTools() {
+        final ResourcePolicy policy = new ResourcePolicy()
+            .withNice(10)
+            .withIoClass(IoClass.IDLE, 0)
+            .withMemoryMax(1024);
+        final Set<Setting> applied = EnumSet.noneOf(Setting.class);
+
+        final List<String> cmd = policy.wrap(CMD, applied, "ionice"::equals, 0);
+
+        assertEquals(List.of("ionice", "-t", "-c", "3", "rclone", "sync", "a", "b"), cmd);
+        assertEquals(EnumSet.of(Setting.IO_CLASS), applied);
+    }
+
+    @Test
+    void testWrap_Empty() {
+        final Set<Setting> applied = EnumSet.noneOf(Setting.class);
+        assertEquals(CMD, new ResourcePolicy().wrap(CMD, applied, tool -> true, 0));
+        assertTrue(applied.isEmpty());
+    }
+
+    @Test
+    void testWrap_NiceRelativeToJvm() {
+        final ResourcePolicy policy = new ResourcePolicy().withNice(10);
+        final Set<Setting> applied = EnumSet.noneOf(Setting.class);
+        assertEquals(List.of("nice", "-n", "5", "rclone", "sync", "a", "b"), policy.wrap(CMD, applied, tool -> true, 5));
+        assertEquals(List.of("nice", "-n", "-5", "rclone", "sync", "a", "b"), policy.wrap(CMD, applied, tool -> true, 15));
+        assertEquals(EnumSet.of(Setting.NICE), applied);
+    }
+
+    @Test
+    void testCheckApplied() {
+        final ResourcePolicy policy = new ResourcePolicy()
+            .withNice(-5)
+            .withIoClass(IoClass.BEST_EFFORT, 7)
+            .withCpuAffinity(0, 2)
+            .withMemoryMax(1_000_000)
+            .withCpuQuota(50);
+        final Set<Setting> requested = EnumSet.allOf(Setting.class);
+
+        // The kernel rounds the memory limit down to a multiple of the page size
+        final ResourcePolicy.ProcessState applied = new ResourcePolicy.ProcessState(-5, "best-effort: prio 7", Set.of(0, 2), "999424", "50000 100000");
+        assertEquals(requested, policy.checkApplied(applied, requested));
+        assertEquals(EnumSet.of(Setting.NICE), policy.checkApplied(applied, EnumSet.of(Setting.NICE)));
+
+        // Limits set, but not the requested ones (e.g. by an enclosing scope)
+        final ResourcePolicy.ProcessState other = new ResourcePolicy.ProcessState(5, "best-effort: prio 7", Set.of(0, 2), "4096", "200000 100000");
+        assertEquals(EnumSet.of(Setting.IO_CLASS, Setting.CPU_AFFINITY), policy.checkApplied(other, requested));
+
+        // Unprivileged negative nice, ionice -t ignoring a failure, no scope
+        final ResourcePolicy.ProcessState ignored = new ResourcePolicy.ProcessState(0, "none: prio 4", Set.of(0, 1, 2, 3), "max", null);
+        assertTrue(policy.checkApplied(ignored, requested).isEmpty());
+        assertTrue(policy.checkApplied(new ResourcePolicy.ProcessState(null, null, null, null, null), requested).isEmpty());
+    }
+
+    @Test
+    void testParseCpuList() {
+        assertEquals(Set.of(0, 1, 2, 5), ResourcePolicy.parseCpuList("0-2,5"));
+        assertEquals(Set.of(3), ResourcePolicy.parseCpuList("3"));
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void testCheckApplied_RunningProcess() throws Exception {
+        // The JVM may already be niced, the highest nice value can always be reached
+        final ResourcePolicy policy = new ResourcePolicy().withNice(19);
+        final Set<Setting> requested = EnumSet.noneOf(Setting.class);
+        final List<String> sleep = List.of("sleep", "5");
+        final List<String> cmd = policy.wrap(sleep, requested);
+        assumeTrue(!requested.isEmpty(), "nice is not available");
+        final Process process = new ProcessBuilder(cmd).start();
+        try {
+            assertEquals(requested, policy.checkApplied(process, sleep, requested));
+        } finally {
+            process.destroy();
+        }
+        // The process ended, nothing can be checked
+        process.waitFor();
+        assertTrue(policy.checkApplied(process, sleep, requested).isEmpty());
+    }
+
+    @Test
+    void testInvalidArguments() {
+        final ResourcePolicy policy = new ResourcePolicy();
+        assertThrows(IllegalArgumentException.class, () -> policy.withNice(20));
+        assertThrows(IllegalArgumentException.class, () -> policy.withNice(-21));
+        assertThrows(NullPointerException.class, () -> policy.withIoClass(null, 0));
+        assertThrows(IllegalArgumentException.class, () -> policy.withIoClass(IoClass.BEST_EFFORT, 8));
+        assertThrows(IllegalArgumentException.class, () -> policy.withCpuAffinity());
+        assertThrows(IllegalArgumentException.class, () -> policy.withCpuAffinity(-1));
+        assertThrows(IllegalArgumentException.class, () -> policy.withMemoryMax(-1));
+        assertThrows(IllegalArgumentException.class, () -> policy.withCpuQuota(-1));
+    }
+}
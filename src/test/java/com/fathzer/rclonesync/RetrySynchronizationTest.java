@@ -0,0 +1,142 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.rclonesync.FileFailure.Category;
+
+class RetrySynchronizationTest {
+    private static class TestSync extends RcloneSync {
+        private final List<List<String>> filesFrom = new ArrayList<>();
+        private final Iterator<TestProcess> processes;
+
+        TestSync(TestProcess... processes) {
+            super("src", "dst");
+            this.processes = List.of(processes).iterator();
+        }
+
+        @Override
+        RcloneSync newSync(String source, String destination) {
+            return new RcloneSync(source, destination) {
+                @Override
+                Process buildProcess(List<String> cmd) throws IOException {
+                    synchronized (filesFrom) {
+                        filesFrom.add(Files.readAllLines(Path.of(cmd.get(cmd.indexOf("--files-from-raw") + 1))));
+                        return processes.next();
+                    }
+                }
+            };
+        }
+    }
+
+    private static RetryPolicy fastPolicy() {
+        final RetryPolicy policy = new RetryPolicy();
+        for (Category category : Category.values()) {
+            policy.withInitialDelay(category, Duration.ofMillis(1));
+        }
+        return policy;
+    }
+
+    @Test
+    void testCategory() {
+        assertEquals(Category.RATE_LIMIT, Category.of("googleapi: Error 403: User Rate Limit Exceeded, rateLimitExceeded"));
+        assertEquals(Category.PERMISSION, Category.of("open /a.txt: permission denied"));
+        assertEquals(Category.NO_SPACE, Category.of("write /a.txt: no space left on device"));
+        assertEquals(Category.NOT_FOUND, Category.of("failed to open source object: object not found"));
+        assertEquals(Category.CORRUPTED, Category.of("corrupted on transfer: md5 hash differ"));
+        assertEquals(Category.NETWORK, Category.of("read tcp 10.0.0.1:443: connection reset by peer"));
+        assertEquals(Category.OTHER, Category.of("something strange happened"));
+        // Status codes and short keywords only match whole words
+        assertEquals(Category.RATE_LIMIT, Category.of("HTTP error 429 (429 Too Many) returned body"));
+        assertEquals(Category.NETWORK, Category.of("Post \"https://host/upload\": remote error: tls: bad record MAC"));
+        assertEquals(Category.NOT_FOUND, Category.of("404: object missing"));
+        assertEquals(Category.OTHER, Category.of("corrupt size: expected 14290 got 50412"));
+        assertEquals(Category.OTHER, Category.of("open /outlets/4041.txt: input/output error"));
+    }
+
+    @Test
+    void testIsDirectory() {
+        assertTrue(new FileFailure("dir", Category.PERMISSION, "error reading source directory: permission denied").isDirectory());
+        assertFalse(new FileFailure("dir/a.txt", Category.PERMISSION, "Failed to copy: permission denied").isDirectory());
+    }
+
+    @Test
+    void testDelay() {
+        final RetryPolicy policy = new RetryPolicy().withMaxDelay(Duration.ofMinutes(1));
+        assertEquals(Duration.ofSeconds(5), policy.delay(Category.NETWORK, 1));
+        assertEquals(Duration.ofSeconds(20), policy.delay(Category.NETWORK, 3));
+        assertEquals(Duration.ofMinutes(1), policy.delay(Category.NETWORK, 5));
+        assertEquals(Duration.ofMinutes(1), policy.delay(Category.NETWORK, 200));
+        assertThrows(IllegalArgumentException.class, () -> policy.withMaxAttempts(0));
+        assertThrows(IllegalArgumentException.class, () -> policy.withInitialDelay(Category.OTHER, Duration.ofSeconds(-1)));
+    }
+
+    @Test
+    void testRetryFailed() throws Exception {
+        final SynchronizationResult failed = new SynchronizationResult();
+        failed.addFailure(new FileFailure("a.txt", Category.NETWORK, "connection reset"));
+        failed.addFailure(new FileFailure("b.txt", Category.NETWORK, "connection reset"));
+        failed.addFailure(new FileFailure("c.txt", Category.PERMISSION, "permission denied"));
+        final TestSync sync = new TestSync(
+            // First attempt of network errors: b.txt fails again
+            new TestProcess("INFO  : a.txt: Copied (new)\nERROR : b.txt: Failed to copy: connection reset\n", 1),
+            // First attempt of permission errors: rclone fails without telling which file failed
+            new TestProcess("", 2),
+            // Second attempts: both files fail again
+            new TestProcess("ERROR : b.txt: Failed to copy: connection reset\n", 1),
+            new TestProcess("ERROR : c.txt: Failed to copy: permission denied\n", 1));
+        final Synchronization synchronization = sync.retryFailed(failed, fastPolicy().withMaxAttempts(2));
+        synchronization.waitFor();
+
+        assertEquals(4, sync.filesFrom.size());
+        assertTrue(sync.filesFrom.containsAll(List.of(List.of("a.txt", "b.txt"), List.of("c.txt"), List.of("b.txt"))));
+        final SynchronizationResult result = synchronization.result();
+        assertNotEquals(0, result.exitCode());
+        assertEquals(1, result.copied());
+        assertEquals(List.of("b.txt", "c.txt"), result.failures().stream().map(FileFailure::path).sorted().toList());
+    }
+
+    @Test
+    void testRetryFailed_OnlyCompletedFilesSucceed() throws Exception {
+        final SynchronizationResult failed = new SynchronizationResult();
+        failed.addFailure(new FileFailure("#a.txt", Category.NETWORK, "connection reset"));
+        failed.addFailure(new FileFailure("b.txt", Category.NETWORK, "connection reset"));
+        failed.addFailure(new FileFailure("dir", Category.PERMISSION, "error reading source directory: permission denied"));
+        final TestSync sync = new TestSync(
+            // rclone succeeds, but doesn't report b.txt
+            new TestProcess("INFO  : #a.txt: Copied (new)\n", 0),
+            new TestProcess("INFO  : b.txt: Copied (replaced existing)\n", 0));
+        final Synchronization synchronization = sync.retryFailed(failed, fastPolicy());
+        synchronization.waitFor();
+
+        // The directory is not retried, names are passed raw
+        assertEquals(List.of(List.of("#a.txt", "b.txt"), List.of("b.txt")), sync.filesFrom);
+        final SynchronizationResult result = synchronization.result();
+        assertEquals(List.of("dir"), result.failures().stream().map(FileFailure::path).toList());
+        assertNotEquals(0, result.exitCode());
+        assertEquals(1, result.copied());
+        assertEquals(1, result.replaced());
+    }
+
+    @Test
+    void testRetryFailed_Success() throws Exception {
+        final SynchronizationResult failed = new SynchronizationResult();
+        failed.addFailure(new FileFailure("a.txt", Category.RATE_LIMIT, "429 Too Many Requests"));
+        final TestSync sync = new TestSync(new TestProcess("INFO  : a.txt: Copied (new)\n", 0));
+        final Synchronization synchronization = sync.retryFailed(failed, fastPolicy());
+        synchronization.waitFor();
+        final SynchronizationResult result = synchronization.result();
+        assertEquals(0, result.exitCode());
+        assertFalse(result.hasFailures());
+        assertEquals(1, result.copied());
+    }
+}
@@ -0,0 +1,178 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SyncCoordinatorTest {
+    @TempDir
+    Path dir;
+
+    private static RcloneSync sync(TestProcess process) {
+        return new RcloneSync("src", "dst") {
+            @Override
+            Process buildProcess(List<String> cmd) {
+                return process;
+            }
+        };
+    }
+
+    @Test
+    void testRun() throws Exception {
+        final FileLeaseStoreTest.TestClock clock = new FileLeaseStoreTest.TestClock();
+        final SyncCoordinator node1 = new SyncCoordinator(new FileLeaseStore(dir, clock), "node1").withLeaseDuration(Duration.ofMillis(30));
+        final SyncCoordinator node2 = new SyncCoordinator(new FileLeaseStore(dir, clock), "node2");
+
+        final Synchronization running = node1.run("dst", sync(new TestProcess("", 143, true))::run).orElseThrow();
+        // Let some heartbeats happen
+        Thread.sleep(50);
+        assertTrue(node2.run("dst", sync(new TestProcess("", 0))::run).isEmpty());
+        running.cancel();
+        running.waitFor();
+
+        final Synchronization synchronization = node2.run("dst", sync(new TestProcess("INFO  : a.txt: Copied (new)\n", 0))::run).orElseThrow();
+        synchronization.waitFor();
+        assertEquals(1, synchronization.result().copied());
+        assertTrue(node1.run("dst", sync(new TestProcess("", 0))::run).isPresent());
+    }
+
+    @Test
+    void testLostLease() throws Exception {
+        final FileLeaseStoreTest.TestClock clock = new FileLeaseStoreTest.TestClock();
+        final SyncCoordinator node1 = new SyncCoordinator(new FileLeaseStore(dir, clock), "node1").withLeaseDuration(Duration.ofMillis(30));
+        final Synchronization running = node1.run("dst", sync(new TestProcess("", 143, true))::run).orElseThrow();
+
+        // node1 is considered dead by node2
+        clock.advance(Duration.ofHours(1));
+        final LeaseStore store2 = new FileLeaseStore(dir, clock);
+        final LeaseStore.Lease stolen = store2.acquire("dst", "node2", Duration.ofMinutes(1)).orElseThrow();
+        // The next heartbeat of node1 cancels its synchronization
+        running.waitFor();
+        assertTrue(running.isCancelled());
+        // node1 did not release the lease of node2
+        assertTrue(store2.renew(stolen, Duration.ofMinutes(1)).isPresent());
+    }
+
+    @Test
+    void testLeaseRenewedWhileStarting() throws Exception {
+        final SyncCoordinator node1 = new SyncCoordinator(new FileLeaseStore(dir).withMaxClockSkew(Duration.ZERO), "node1")
+            .withLeaseDuration(Duration.ofMillis(60));
+        final SyncCoordinator node2 = new SyncCoordinator(new FileLeaseStore(dir).withMaxClockSkew(Duration.ZERO), "node2");
+        final CompletableFuture<Synchronization> starting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return node1.run("dst", () -> {
+                    // A job that takes longer than the lease duration to start (a listing for instance)
+                    sleep(300);
+                    return sync(new TestProcess("", 143, true)).run();
+                }).orElseThrow();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertTrue(node2.run("dst", sync(new TestProcess("", 0))::run).isEmpty(), "The lease should be renewed while the job starts");
+        final Synchronization running = starting.get();
+        assertFalse(running.isCancelled());
+        running.cancel();
+        running.waitFor();
+    }
+
+    @Test
+    void testLeaseLostWhileStarting() throws Exception {
+        final FileLeaseStoreTest.TestClock clock = new FileLeaseStoreTest.TestClock();
+        final SyncCoordinator node1 = new SyncCoordinator(new FileLeaseStore(dir, clock), "node1").withLeaseDuration(Duration.ofMillis(30));
+        final Synchronization synchronization = node1.run("dst", () -> {
+            // node1 is considered dead by node2 while its job starts
+            clock.advance(Duration.ofHours(1));
+            new FileLeaseStore(dir, clock).acquire("dst", "node2", Duration.ofMinutes(1)).orElseThrow();
+            sleep(100);
+            return sync(new TestProcess("", 143, true)).run();
+        }).orElseThrow();
+        synchronization.waitFor();
+        assertTrue(synchronization.isCancelled());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void testStoreUnavailable() throws Exception {
+        final FileLeaseStoreTest.TestClock clock = new FileLeaseStoreTest.TestClock();
+        final AtomicBoolean unavailable = new AtomicBoolean();
+        final LeaseStore store = new FileLeaseStore(dir, clock) {
+            @Override
+            public Optional<Lease> renew(Lease lease, Duration duration) throws IOException {
+                if (unavailable.get()) {
+                    throw new IOException("store unavailable");
+                }
+                return super.renew(lease, duration);
+            }
+        };
+        final SyncCoordinator node = new SyncCoordinator(store, "node1", clock).withLeaseDuration(Duration.ofMillis(300))
+            .withMaxClockSkew(Duration.ofMillis(50));
+        final Synchronization running = node.run("dst", sync(new TestProcess("", 143, true))::run).orElseThrow();
+
+        // The lease expires in 300ms, another node may take over after 250ms, heartbeats occur every 100ms
+        unavailable.set(true);
+        Thread.sleep(250);
+        assertFalse(running.isCancelled(), "The lease should still be valid at the next heartbeat");
+        clock.advance(Duration.ofMillis(160));
+        // The next heartbeat would be too late
+        running.waitFor();
+        assertTrue(running.isCancelled());
+        assertThrows(IllegalArgumentException.class, () -> node.withMaxClockSkew(Duration.ofSeconds(-1)));
+    }
+
+    @Test
+    void testRunNext() throws Exception {
+        final SyncCoordinator node1 = new SyncCoordinator(new FileLeaseStore(dir), "node1");
+        final SyncCoordinator node2 = new SyncCoordinator(new FileLeaseStore(dir), "node2");
+        node1.submit("shard1");
+        node1.submit("shard2");
+
+        final TestProcess blocking = new TestProcess("", 143, true);
+        final Synchronization first = node1.runNext(shard -> sync(blocking)::run).orElseThrow();
+        // node2 is idle, it picks up the next shard
+        final Synchronization second = node2.runNext(shard -> {
+            assertEquals("shard2", shard);
+            return sync(new TestProcess("", 0))::run;
+        }).orElseThrow();
+        second.waitFor();
+        assertTrue(node2.runNext(shard -> sync(new TestProcess("", 0))::run).isEmpty());
+
+        // A failed shard stays queued, and is picked up again
+        first.cancel();
+        first.waitFor();
+        final Optional<Synchronization> retry = node2.runNext(shard -> {
+            assertEquals("shard1", shard);
+            return sync(new TestProcess("", 0))::run;
+        });
+        retry.orElseThrow().waitFor();
+        assertTrue(node1.runNext(shard -> sync(new TestProcess("", 0))::run).isEmpty());
+    }
+
+    @Test
+    void testStartFailure() throws IOException {
+        final SyncCoordinator node = new SyncCoordinator(new FileLeaseStore(dir), "node");
+        final SyncCoordinator.Job failing = () -> {
+            throw new IOException("rclone not found");
+        };
+        assertThrows(IOException.class, () -> node.run("dst", failing));
+        assertTrue(node.run("dst", sync(new TestProcess("", 0))::run).isPresent());
+    }
+}
@@ -0,0 +1,66 @@
+package com.fathzer.rclonesync;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A {@link Process} that outputs a predefined text and exits with a predefined code.
+ */
+class TestProcess extends Process {
+    private final InputStream output;
+    private final int exitCode;
+    private final CountDownLatch destroyed = new CountDownLatch(1);
+    private final boolean waitForDestroy;
+
+    TestProcess(String output, int exitCode) {
+        this(output, exitCode, false);
+    }
+
+    /**
+     * Creates a process.
+     * @param output the process output
+     * @param exitCode the exit code
+     * @param waitForDestroy true to have {@link #waitFor()} block until the process is destroyed
+     */
+    TestProcess(String output, int exitCode, boolean waitForDestroy) {
+        this.output = new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8));
+        this.exitCode = exitCode;
+        this.waitForDestroy = waitForDestroy;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return output;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return InputStream.nullInputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        if (waitForDestroy) {
+            destroyed.await();
+        }
+        return exitCode;
+    }
+
+    @Override
+    public int exitValue() {
+        return exitCode;
+    }
+
+    @Override
+    public void destroy() {
+        destroyed.countDown();
+    }
+}
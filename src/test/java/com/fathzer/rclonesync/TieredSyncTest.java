@@ -0,0 +1,124 @@
+package com.fathzer.rclonesync;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TieredSyncTest {
+    @TempDir
+    Path tempDir;
+
+    private static final String PROGRESS = "Transferred:   1 KiB / 2 KiB, 50%, 1 KiB/s, ETA 1s\nChecks:  1 / 2, 50%, Listed 2\n";
+
+    private static class TestTieredSync extends TieredSync {
+        private final List<List<String>> commands = new ArrayList<>();
+        private final int smallFilesExitCode;
+
+        TestTieredSync(int smallFilesExitCode) {
+            super("src", "dst");
+            this.smallFilesExitCode = smallFilesExitCode;
+        }
+
+        @Override
+        RcloneSync newSync(String source, String destination) {
+            return new RcloneSync(source, destination) {
+                @Override
+                Process buildProcess(List<String> cmd) throws IOException {
+                    synchronized (commands) {
+                        commands.add(cmd);
+                    }
+                    if (cmd.contains("--max-size")) {
+                        return new TestProcess(PROGRESS + "INFO  : small.txt: Copied (new)\n", smallFilesExitCode);
+                    } else if (cmd.contains("--min-size")) {
+                        return new TestProcess(PROGRESS + "INFO  : large.bin: Copied (replaced existing)\n", 0);
+                    } else {
+                        return new TestProcess("INFO  : old.txt: Deleted\n", 0);
+                    }
+                }
+            };
+        }
+
+        private List<String> command(String option) {
+            synchronized (commands) {
+                return commands.stream().filter(cmd -> option == null ? !cmd.contains("--max-size") && !cmd.contains("--min-size") : cmd.contains(option))
+                    .findAny().orElse(null);
+            }
+        }
+    }
+
+    @Test
+    void testRun() throws Exception {
+        final TestTieredSync tieredSync = new TestTieredSync(0);
+        final List<Progress> progresses = new ArrayList<>();
+        tieredSync.withThreshold(1000).withSmallFileLane(10, 20).withLargeFileLane(2, 4)
+            .withSettings(sync -> sync.withCheckSum(true))
+            .withEventConsumer(p -> {
+                synchronized (progresses) {
+                    progresses.add(p);
+                }
+            });
+        final Synchronization synchronization = tieredSync.run();
+        final DemandPublisherTest.RecordingSubscriber<FileEvent> events = new DemandPublisherTest.RecordingSubscriber<>(Long.MAX_VALUE);
+        synchronization.fileEventPublisher().subscribe(events);
+        synchronization.waitFor();
+
+        final List<String> small = tieredSync.command("--max-size");
+        assertEquals("copy", small.get(1));
+        assertEquals("1000B", small.get(small.indexOf("--max-size") + 1));
+        assertEquals("10", small.get(small.indexOf("--transfers") + 1));
+        assertEquals("20", small.get(small.indexOf("--checkers") + 1));
+        assertTrue(small.contains("--checksum"));
+        final List<String> large = tieredSync.command("--min-size");
+        assertEquals("copy", large.get(1));
+        assertEquals("1001B", large.get(large.indexOf("--min-size") + 1));
+        assertEquals("4", large.get(large.indexOf("--multi-thread-streams") + 1));
+        assertEquals("sync", tieredSync.command(null).get(1));
+
+        final SynchronizationResult result = synchronization.result();
+        assertEquals(0, result.exitCode());
+        assertEquals(1, result.copied());
+        assertEquals(1, result.replaced());
+        assertEquals(1, result.deleted());
+        assertEquals(2048, progresses.get(progresses.size() - 1).processedBytes(), "Progress of the lanes should be merged");
+        assertTrue(events.completed);
+    }
+
+    @Test
+    void testRun_LaneFails() throws Exception {
+        final TestTieredSync tieredSync = new TestTieredSync(1);
+        final Synchronization synchronization = tieredSync.run();
+        synchronization.waitFor();
+        assertNull(tieredSync.command(null), "Deletion pass should not run when a lane fails");
+        assertEquals(1, synchronization.result().exitCode());
+        assertEquals(0, synchronization.result().deleted());
+    }
+
+    @Test
+    void testRun_WithCheckpointJournal() throws Exception {
+        final Path journal = tempDir.resolve("journal");
+        final TestTieredSync tieredSync = new TestTieredSync(1);
+        tieredSync.withSettings(sync -> sync.withCheckpointJournal(journal));
+        tieredSync.run().waitFor();
+        // The large-file lane succeeded, the small-file lane can be resumed
+        assertEquals(List.of("small.txt"), Files.readAllLines(tempDir.resolve("journal.small")));
+        assertFalse(Files.exists(tempDir.resolve("journal.large")));
+        assertFalse(Files.exists(journal));
+    }
+
+    @Test
+    void testInvalidArguments() {
+        final TieredSync sync = new TieredSync("src", "dst");
+        assertThrows(NullPointerException.class, () -> new TieredSync(null, "dst"));
+        assertThrows(IllegalArgumentException.class, () -> sync.withThreshold(-1));
+        assertThrows(IllegalArgumentException.class, () -> sync.withSmallFileLane(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> sync.withLargeFileLane(1, 0));
+        assertThrows(NullPointerException.class, () -> sync.withSettings(null));
+    }
+}